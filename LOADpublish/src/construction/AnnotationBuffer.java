@@ -0,0 +1,88 @@
+package construction;
+
+import java.util.Arrays;
+
+/**
+ * The annotations of a single page (entities, terms, sentences and the page itself) for LOAD graph construction.
+ * Instead of one object per annotation, the type, value, node ID and sentence of all annotations are stored in
+ * parallel arrays. Each worker reuses its buffer for all pages, so that no memory is allocated for annotations
+ * once the arrays have grown to the size of the largest page.
+ * An annotation is referenced by its index in the buffer. Its ID is -1 until it has been resolved.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class AnnotationBuffer {
+
+    private char[] types;
+    private String[] values;
+    private int[] ids;
+    private int[] sentenceIDs;
+    private int size;
+
+    public AnnotationBuffer(int capacity) {
+        capacity = Math.max(16, capacity);
+        types = new char[capacity];
+        values = new String[capacity];
+        ids = new int[capacity];
+        sentenceIDs = new int[capacity];
+        size = 0;
+    }
+
+    // add an annotation with an unresolved ID and return its index
+    public int add(String value, char type, int sentenceID) {
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = type;
+        values[size] = value;
+        ids[size] = -1;
+        sentenceIDs[size] = sentenceID;
+        return size++;
+    }
+
+    private void grow() {
+        int capacity = 2 * types.length;
+        types = Arrays.copyOf(types, capacity);
+        values = Arrays.copyOf(values, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        sentenceIDs = Arrays.copyOf(sentenceIDs, capacity);
+    }
+
+    public char type(int index) {
+        return types[index];
+    }
+
+    public String value(int index) {
+        return values[index];
+    }
+
+    public int id(int index) {
+        return ids[index];
+    }
+
+    public void setID(int index, int id) {
+        ids[index] = id;
+    }
+
+    public int sentenceID(int index) {
+        return sentenceIDs[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // remove all annotations from the given index on (the values are released)
+    public void truncate(int size) {
+        if (size < this.size) {
+            Arrays.fill(values, size, this.size, null);
+            this.size = size;
+        }
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+}
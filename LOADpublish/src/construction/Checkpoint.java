@@ -0,0 +1,158 @@
+package construction;
+
+import static settings.LOADmodelSettings.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checkpoint manifest of a LOAD graph construction run. Records the last completed stage and the state
+ * that later stages depend on (counters, set sizes, progress of the extraction), so that an interrupted
+ * run can be resumed from the last durable point. The manifest is a simple list of key-value pairs
+ * and is replaced atomically whenever it is saved.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class Checkpoint {
+
+    // stages of the construction in the order in which they are executed
+    public static final String stageExtraction = "extraction";
+    public static final String stageNodes = "nodes";
+    public static final String stageSorting = "sorting";
+    public static final String stageAggregation = "aggregation";
+    public static final String stageSplitSorting = "splitsorting";
+    public static final String stageFinalization = "finalization";
+    private static final String[] stages = {stageExtraction, stageNodes, stageSorting, stageAggregation,
+                                            stageSplitSorting, stageFinalization};
+
+    private static final String keyCompletedStage = "completedStage";
+
+    private File file;
+    private LinkedHashMap<String, String> values;
+
+    public Checkpoint(String filename) throws IOException {
+        file = new File(filename);
+        values = new LinkedHashMap<String, String>();
+
+        if (file.exists()) {
+            BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = bf.readLine()) != null) {
+                if (line.startsWith(commentChar)) continue;
+                int pos = line.indexOf(sepChar);
+                if (pos > 0) {
+                    values.put(line.substring(0, pos), line.substring(pos + 1));
+                }
+            }
+            bf.close();
+        }
+    }
+
+    // true if a previous run has saved any progress
+    public boolean exists() {
+        return !values.isEmpty();
+    }
+
+    // true if the given stage (and all stages before it) have been completed
+    public boolean isCompleted(String stage) {
+        String completed = values.get(keyCompletedStage);
+        return completed != null && stageIndex(completed) >= stageIndex(stage);
+    }
+
+    // marks a stage as completed (never moves the checkpoint back to an earlier stage)
+    public void setCompleted(String stage) {
+        if (!isCompleted(stage)) {
+            values.put(keyCompletedStage, stage);
+        }
+    }
+
+    private static int stageIndex(String stage) {
+        for (int i=0; i<stages.length; i++) {
+            if (stages[i].equals(stage)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown construction stage: " + stage);
+    }
+
+    public boolean has(String key) {
+        return values.containsKey(key);
+    }
+
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    public long getLong(String key) {
+        return Long.parseLong(values.get(key));
+    }
+
+    public int getInt(String key) {
+        return Integer.parseInt(values.get(key));
+    }
+
+    public int[] getIntArray(String key) {
+        String[] split = values.get(key).split(" ");
+        int[] array = new int[split.length];
+        for (int i=0; i<split.length; i++) {
+            array[i] = Integer.parseInt(split[i]);
+        }
+        return array;
+    }
+
+    public long[] getLongArray(String key) {
+        String[] split = values.get(key).split(" ");
+        long[] array = new long[split.length];
+        for (int i=0; i<split.length; i++) {
+            array[i] = Long.parseLong(split[i]);
+        }
+        return array;
+    }
+
+    public void put(String key, Object value) {
+        values.put(key, String.valueOf(value));
+    }
+
+    public void put(String key, int[] array) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<array.length; i++) {
+            sb.append(i > 0 ? " " : "").append(array[i]);
+        }
+        values.put(key, sb.toString());
+    }
+
+    public void put(String key, long[] array) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<array.length; i++) {
+            sb.append(i > 0 ? " " : "").append(array[i]);
+        }
+        values.put(key, sb.toString());
+    }
+
+    // write the manifest to a temporary file, force it to disk and then replace the old manifest
+    public void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        Writer w = new OutputStreamWriter(out, "UTF-8");
+        w.append(commentChar + " LOAD graph construction checkpoint\n");
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            w.append(entry.getKey() + sepChar + entry.getValue() + "\n");
+        }
+        w.flush();
+        out.getFD().sync();
+        w.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
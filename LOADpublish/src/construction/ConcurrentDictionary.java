@@ -0,0 +1,136 @@
+package construction;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Node dictionary that keeps the values as Java Strings on the heap. Each stripe is an open addressing hash
+ * table that is read without locking: a key is published only after its ID has been written, and a grown
+ * table is published only after all entries have been copied.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class ConcurrentDictionary extends NodeDictionary {
+
+    private static final int initialCapacity = 16;
+
+    // new values get the IDs firstID, firstID+1, ... (nStripes is rounded up to a power of two)
+    public ConcurrentDictionary(int firstID, int nStripes) {
+        super(firstID, nStripes);
+    }
+
+    @Override
+    protected Stripe newStripe() {
+        return new HeapStripe();
+    }
+
+    @Override
+    protected Object keyOf(String value) {
+        return value;
+    }
+
+    @Override
+    protected boolean isOffHeap() {
+        return false;
+    }
+
+    private static class HeapStripe extends Stripe {
+        volatile Table table = new Table(initialCapacity);
+        // total length of the values (for the memory estimate)
+        long chars = 0;
+
+        @Override
+        protected int get(Object key, int slotHash) {
+            return table.get((String) key, slotHash);
+        }
+
+        @Override
+        protected void insert(Object key, int slotHash, int id) {
+            Table t = table;
+            if (2 * (size + 1) > t.capacity()) {
+                // keep the load factor below 1/2. The grown table is published once it is complete.
+                Table grown = new Table(2 * t.capacity());
+                for (int i=0; i<t.capacity(); i++) {
+                    String k = t.keys.get(i);
+                    if (k != null) {
+                        grown.add(k, t.hashes[i], t.ids[i]);
+                    }
+                }
+                table = grown;
+                t = grown;
+            }
+            t.add((String) key, slotHash, id);
+            chars += ((String) key).length();
+            size++;
+        }
+
+        @Override
+        protected int capacity() {
+            return table.capacity();
+        }
+
+        @Override
+        protected String valueAt(int slot) {
+            return table.keys.get(slot);
+        }
+
+        @Override
+        protected int idAt(int slot) {
+            return table.ids[slot];
+        }
+
+        // String object and character array (with headers) per value
+        @Override
+        protected long labelBytes() {
+            return 40L * size + 2 * chars;
+        }
+
+        // reference, hash and ID per slot
+        @Override
+        protected long indexBytes() {
+            return 12L * table.capacity();
+        }
+    }
+
+    private static class Table {
+        final AtomicReferenceArray<String> keys;
+        final int[] hashes;
+        final int[] ids;
+
+        Table(int capacity) {
+            keys = new AtomicReferenceArray<String>(capacity);
+            hashes = new int[capacity];
+            ids = new int[capacity];
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        // linear probing. Returns -1 if the value is not contained.
+        int get(String value, int slotHash) {
+            int mask = ids.length - 1;
+            for (int i = slotHash & mask; ; i = (i + 1) & mask) {
+                String key = keys.get(i);
+                if (key == null) {
+                    return -1;
+                } else if (hashes[i] == slotHash && key.equals(value)) {
+                    return ids[i];
+                }
+            }
+        }
+
+        // hash and ID are written before the key, so that a reader that finds the key also sees them
+        void add(String value, int slotHash, int id) {
+            int mask = ids.length - 1;
+            int i = slotHash & mask;
+            while (keys.get(i) != null) {
+                i = (i + 1) & mask;
+            }
+            hashes[i] = slotHash;
+            ids[i] = id;
+            keys.set(i, value);
+        }
+    }
+}
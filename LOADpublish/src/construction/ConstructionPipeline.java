@@ -0,0 +1,325 @@
+package construction;
+
+import static settings.SystemSettings.*;
+
+import java.lang.reflect.Method;
+import java.text.DecimalFormat;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// trove library imports
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Staged LOAD graph construction. Fetcher threads read pages from the document source (I/O bound),
+ * processing threads turn pages into edges (CPU bound) and a single writer thread collects the edges, sorts them
+ * and writes them to disk as runs for the external sort (see EdgeSpiller).
+ * The stages are connected by bounded queues, so that a fast stage blocks on a full queue instead of
+ * filling up the memory (backpressure). Each stage has its own number of threads and throughput counters.
+ * With SystemSettings.useVirtualThreads, pages are fetched by one virtual thread per page instead.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class ConstructionPipeline {
+
+    // markers for the end of the input of a stage
+    private static final PageBundle endOfPages = new PageBundle(-1);
+    private static final TLongArrayList endOfEdges = new TLongArrayList(0);
+
+    private MultiThreadHub hub;
+    private DocumentSource source;
+    private HashSet<String> stopwords;
+
+    private BlockingQueue<PageBundle> pageQueue;
+    private BlockingQueue<TLongArrayList> edgeQueue;
+    private AtomicInteger activeFetchers;
+    private AtomicInteger activeProcessors;
+    private CountDownLatch writerDone;
+
+    // per-stage statistics: number of items, time spent working and time spent blocked on a queue
+    private StageCounter fetchStage = new StageCounter("fetch", useVirtualThreads ? maxPagesInFlight : nFetchThreads);
+    private StageCounter processStage = new StageCounter("process", nProcessThreads);
+    private StageCounter writeStage = new StageCounter("write", 1);
+    private AtomicInteger failedPages = new AtomicInteger();
+    private AtomicLong writtenEdges = new AtomicLong();
+
+    public ConstructionPipeline(MultiThreadHub hub, DocumentSource source, HashSet<String> stopwords) {
+        this.hub = hub;
+        this.source = source;
+        this.stopwords = stopwords;
+
+        pageQueue = new ArrayBlockingQueue<PageBundle>(pageQueueSize);
+        edgeQueue = new ArrayBlockingQueue<TLongArrayList>(edgeQueueSize);
+        activeFetchers = new AtomicInteger(nFetchThreads);
+        activeProcessors = new AtomicInteger(nProcessThreads);
+        writerDone = new CountDownLatch(1);
+    }
+
+    // start all stages and wait until the last edge has been written
+    public void run() {
+        long start = System.nanoTime();
+
+        if (useVirtualThreads) {
+            new Thread(new Dispatcher(), "LOAD-dispatch").start();
+        } else {
+            for (int i=0; i<nFetchThreads; i++) {
+                new Thread(new Fetcher(), "LOAD-fetch-" + i).start();
+            }
+        }
+        for (int i=0; i<nProcessThreads; i++) {
+            new Thread(new Processor(new MultiThreadWorker(hub, source, stopwords)), "LOAD-process-" + i).start();
+        }
+        new Thread(new Writer(), "LOAD-write").start();
+
+        while (true) {
+            try {
+                writerDone.await();
+                break;
+            } catch (InterruptedException e) {
+                System.out.println();
+                System.out.println("Waiting was interrupted (pipeline)");
+            }
+        }
+
+        // the statistics of the hub are only read after the pipeline has finished
+        hub.updateFailedPages(failedPages.get());
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println();
+        System.out.println("Pipeline finished in " + new DecimalFormat("#.#").format(seconds) + " seconds.");
+        System.out.println(fetchStage.report(seconds, "pages"));
+        System.out.println(processStage.report(seconds, "pages"));
+        System.out.println(writeStage.report(seconds, "batches") + " (" + writtenEdges.get() + " edges)");
+        System.out.println("Pages that could not be fetched: " + failedPages.get());
+    }
+
+    // reads a page from the document source and hands it to the processing stage
+    private void fetchPage(int page_id) throws InterruptedException {
+        long t0 = System.nanoTime();
+        PageBundle page;
+        try {
+            page = source.getPage(page_id);
+        } catch (Exception e) {
+            e.printStackTrace();
+            failedPages.incrementAndGet();
+            return;
+        }
+        long t1 = System.nanoTime();
+        pageQueue.put(page);
+        fetchStage.add(t1 - t0, System.nanoTime() - t1);
+    }
+
+    // the end of the input is signalled to each processor
+    private void endOfFetching() {
+        for (int i=0; i<nProcessThreads; i++) {
+            putUninterruptibly(pageQueue, endOfPages);
+        }
+    }
+
+    // fetches pages one after another
+    private class Fetcher implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Integer page_id;
+                while ( (page_id = hub.getPageID()) != null ) {
+                    fetchPage(page_id);
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Fetcher was interrupted");
+            } finally {
+                // the last fetcher signals the end of the input to all processors
+                if (activeFetchers.decrementAndGet() == 0) {
+                    endOfFetching();
+                }
+            }
+        }
+    }
+
+    /* Starts one (virtual) thread per page, so that up to maxPagesInFlight requests to the document source
+     * can be outstanding at the same time. A page stays in flight until it is handed to the processing stage,
+     * so a full page queue also stops the dispatcher.
+     */
+    private class Dispatcher implements Runnable {
+        @Override
+        public void run() {
+            final Semaphore inFlight = new Semaphore(maxPagesInFlight);
+            ExecutorService executor = newVirtualThreadExecutor();
+            try {
+                Integer page_id;
+                while ( (page_id = hub.getPageID()) != null ) {
+                    inFlight.acquire();
+                    final int id = page_id;
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                fetchPage(id);
+                            } catch (InterruptedException e) {
+                                System.out.println("Fetching of page " + id + " was interrupted");
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    });
+                }
+                // wait for the pages that are still in flight
+                inFlight.acquire(maxPagesInFlight);
+            } catch (InterruptedException e) {
+                System.out.println("Dispatcher was interrupted");
+            } finally {
+                executor.shutdown();
+                endOfFetching();
+            }
+        }
+    }
+
+    /* Executor that starts a new virtual thread for each task. Virtual threads are available from Java 21 on
+     * and are looked up by reflection, so that the code still runs on older Java versions. In this case,
+     * a new platform thread is used per task instead (at a higher cost per thread).
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            System.out.println("Virtual threads are not available (Java 21 or later is required). Using platform threads.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // turns pages into edges and hands them to the writer
+    private class Processor implements Runnable {
+        private MultiThreadWorker worker;
+
+        public Processor(MultiThreadWorker worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long t0 = System.nanoTime();
+                    PageBundle page = pageQueue.take();
+                    if (page == endOfPages) {
+                        break;
+                    }
+                    // after an error, the remaining pages are only taken from the queue, so that the fetchers can finish
+                    if (hub.getFailure() != null) {
+                        continue;
+                    }
+                    long t1 = System.nanoTime();
+                    TLongArrayList edges = new TLongArrayList();
+                    try {
+                        worker.processPage(page, edges);
+                    } catch (Throwable t) {
+                        hub.fail(t);
+                        continue;
+                    }
+                    long t2 = System.nanoTime();
+                    edgeQueue.put(edges);
+                    processStage.add(t2 - t1, (t1 - t0) + (System.nanoTime() - t2));
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Processor was interrupted");
+            } finally {
+                worker.finish();
+                // the last processor signals the end of the input to the writer
+                if (activeProcessors.decrementAndGet() == 0) {
+                    putUninterruptibly(edgeQueue, endOfEdges);
+                }
+            }
+        }
+    }
+
+    // collects the edges and writes them as sorted runs
+    private class Writer implements Runnable {
+        private EdgeSpiller spiller = new EdgeSpiller(hub);
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long t0 = System.nanoTime();
+                    TLongArrayList edges = edgeQueue.take();
+                    if (edges == endOfEdges) {
+                        break;
+                    }
+                    // after an error, the remaining edges are only taken from the queue, so that the processors can finish
+                    if (hub.getFailure() != null) {
+                        continue;
+                    }
+                    long t1 = System.nanoTime();
+                    try {
+                        spiller.add(edges);
+                    } catch (Throwable t) {
+                        hub.fail(t);
+                        continue;
+                    }
+                    writtenEdges.addAndGet(edges.size() / 2);
+                    writeStage.add(System.nanoTime() - t1, t1 - t0);
+                }
+                if (hub.getFailure() == null) {
+                    spiller.finish();
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Writer was interrupted");
+            } catch (Throwable t) {
+                hub.fail(t);
+            } finally {
+                writerDone.countDown();
+            }
+        }
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T item) {
+        while (true) {
+            try {
+                queue.put(item);
+                return;
+            } catch (InterruptedException e) {
+                // keep trying, otherwise the following stage would never terminate
+            }
+        }
+    }
+
+    // throughput counters of a single stage
+    private static class StageCounter {
+        private String name;
+        private int nThreads;
+        private AtomicLong items = new AtomicLong();
+        private AtomicLong busyNanos = new AtomicLong();
+        private AtomicLong blockedNanos = new AtomicLong();
+
+        public StageCounter(String name, int nThreads) {
+            this.name = name;
+            this.nThreads = nThreads;
+        }
+
+        public void add(long busy, long blocked) {
+            items.incrementAndGet();
+            busyNanos.addAndGet(busy);
+            blockedNanos.addAndGet(blocked);
+        }
+
+        // utilization is relative to the total available thread time of the stage
+        public String report(double seconds, String unit) {
+            DecimalFormat dform = new DecimalFormat("#.#");
+            double threadNanos = seconds * 1e9 * nThreads;
+            return "Stage " + name + " (" + nThreads + " threads): " + items.get() + " " + unit + ", "
+                   + dform.format(items.get() / seconds) + " " + unit + "/s, busy "
+                   + dform.format(100 * busyNanos.get() / threadNanos) + "%, blocked on queues "
+                   + dform.format(100 * blockedNanos.get() / threadNanos) + "%";
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package construction;
+
+/**
+ * Source of pages (documents) with their sentences and annotations for LOAD graph construction.
+ * Implementations must be safe to use from multiple worker threads at the same time.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public interface DocumentSource {
+
+    // total number of sentences in the source
+    public long countSentences();
+
+    // total number of annotations in the source
+    public long countAnnotations();
+
+    // all pages that contain annotations, with their number of annotations and sentences if these
+    // can be determined during the scan (duplicates are removed, no particular order)
+    public PageList scanPages() throws Exception;
+
+    // returns a page with all of its sentences and annotations
+    public PageBundle getPage(int pageId) throws Exception;
+
+    public void close();
+}
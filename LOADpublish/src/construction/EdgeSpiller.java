@@ -0,0 +1,74 @@
+package construction;
+
+import static settings.SystemSettings.*;
+import externalsort.EdgeCombiner;
+import externalsort.EdgeRunBuffer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// trove library imports
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Collects the edges of a single thread and writes them as sorted runs through the hub. With
+ * SystemSettings.combineEdges, identical edges are first combined in memory (see EdgeCombiner) and a run is
+ * written whenever the combiner is full, otherwise a run is written for every edgesPerRun edges.
+ * Not thread-safe: each worker (or writer) has its own spiller. If a run cannot be written, an
+ * UncheckedIOException is thrown, which the caller reports to the hub (see MultiThreadHub.fail).
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeSpiller {
+
+    private MultiThreadHub hub;
+    private EdgeRunBuffer run = new EdgeRunBuffer();
+    private EdgeCombiner combiner;
+
+    public EdgeSpiller(MultiThreadHub hub) {
+        this.hub = hub;
+        if (combineEdges) {
+            combiner = new EdgeCombiner(combinerMemory);
+        }
+    }
+
+    // add the edges of a page (two longs per edge, see EdgeRecord)
+    public void add(TLongArrayList edges) {
+        if (combiner == null) {
+            run.addAll(edges);
+            if (run.edges() >= edgesPerRun) {
+                writeRun();
+            }
+            return;
+        }
+        for (int i=0; i<edges.size(); i+=2) {
+            if (!combiner.add(edges.getQuick(i), edges.getQuick(i + 1))) {
+                writeRun();
+                combiner.add(edges.getQuick(i), edges.getQuick(i + 1));
+            }
+        }
+    }
+
+    // write the remaining edges and report the statistics of the combiner to the hub
+    public void finish() {
+        if (!run.isEmpty() || (combiner != null && !combiner.isEmpty())) {
+            writeRun();
+        }
+        if (combiner != null) {
+            hub.updateCombinerStatistics(combiner.getAddedEdges(), combiner.getDrainedEdges());
+        }
+    }
+
+    private void writeRun() {
+        if (combiner != null) {
+            combiner.drainTo(run);
+        }
+        try {
+            hub.writeRun(run);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write a run of " + run.edges() + " edges", e);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package construction;
+
+import static settings.LOADmodelSettings.*;
+import static settings.SystemSettings.*;
+import externalsort.TemporaryFiles;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+// trove library imports
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * Incremental update of an existing LOAD graph (in the output folder) with new documents.
+ *
+ * The node dictionaries of the existing graph are loaded from the vertex files, so that known values keep
+ * their IDs and only unseen values get new IDs. Edges are extracted, sorted and aggregated for the new pages
+ * only (pages that are already contained in the graph are skipped) and then merged into the sorted adjacency
+ * files of the existing graph. Blocks of nodes without new edges are copied unchanged, the blocks of the
+ * other nodes are merged and their degrees in the vertex files are updated.
+ * The files of the existing graph are only replaced once all files have been merged successfully.
+ *
+ * Run main method to add the documents from the configured document source to the graph.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class IncrementalGraphUpdate {
+
+    // prefix of the merged graph files in the temporary folder
+    private static final String mergedPrefix = "merged_";
+
+    // number of nodes of each type in the existing graph
+    private int[] baseSizes = new int[nANNOTATIONS];
+    private TIntHashSet existingPages = new TIntHashSet();
+
+    /* Load the node dictionaries of the existing graph (node ID = line number in the vertex file).
+     * Pages and sentences have no dictionaries, since new pages and their sentences cannot be part of the graph.
+     * For them, only the number of nodes (and the IDs of the existing pages) are needed.
+     */
+    public ArrayList<NodeDictionary> readExistingDictionaries() throws Exception {
+        ArrayList<NodeDictionary> valueToIdMaps = new ArrayList<NodeDictionary>();
+        for (int i=0; i<nANNOTATIONS; i++) {
+            System.out.println("Reading existing nodes for " + setNames[i]);
+            NodeDictionary map = (i < PAG) ? NodeDictionary.create() : null;
+            BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(outfolder + vertexFileNames[i]), "UTF-8"));
+            String line;
+            int id = 0;
+            while ((line = bf.readLine()) != null) {
+                if (i != SEN) {
+                    String name = line.substring(0, line.indexOf(sepChar));
+                    if (i == PAG) {
+                        existingPages.add(Integer.parseInt(name));
+                    } else {
+                        // nodes with empty names are written with a blank name
+                        map.put(name.equals(" ") ? "" : name, id);
+                    }
+                }
+                id++;
+            }
+            bf.close();
+            if (map != null) {
+                map.setNextID(id);
+            }
+            valueToIdMaps.add(map);
+            baseSizes[i] = id;
+        }
+        return valueToIdMaps;
+    }
+
+    public int[] getBaseSizes() {
+        return baseSizes;
+    }
+
+    // IDs of the pages (documents) that are contained in the existing graph
+    public TIntHashSet getExistingPages() {
+        return existingPages;
+    }
+
+    // merge the sorted new edges and the new nodes into the existing graph
+    public boolean mergeIntoExistingGraph(int[] setSizes) {
+        try {
+            for (char type=0; type<nANNOTATIONS; type++) {
+                System.out.println("Merging edges and nodes for " + setNames[type]);
+
+                // degrees of all nodes of this type that have new edges
+                TIntObjectHashMap<int[]> degrees = new TIntObjectHashMap<int[]>();
+                mergeEdges(type, degrees);
+                mergeNodes(type, setSizes[type], degrees);
+                System.out.println("  Updated " + degrees.size() + " nodes, added " + (setSizes[type] - baseSizes[type]) + " nodes.");
+            }
+
+            // replace the files of the existing graph
+            System.out.println("Replacing graph files");
+            for (int i=0; i<nANNOTATIONS; i++) {
+                replaceFile(tmpfolder + mergedPrefix + edgeFileNames[i], edgeFileNames[i]);
+                replaceFile(tmpfolder + mergedPrefix + vertexFileNames[i], vertexFileNames[i]);
+            }
+            replaceFile(tmpfolder + metaFileName, metaFileName);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /* Merge the adjacency blocks of the existing graph with the new edges. Both are sorted by source node, then
+     * by target type and target node. Edges that exist in both are combined by adding their weights.
+     */
+    private void mergeEdges(char type, TIntObjectHashMap<int[]> degrees) throws Exception {
+        BufferedReader graph = new BufferedReader(new InputStreamReader(new FileInputStream(outfolder + edgeFileNames[type]), "UTF-8"));
+        EdgeReader delta = new EdgeReader(tmpfolder + "tmp_sorted_" + edgeFileNames[type]);
+        BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpfolder + mergedPrefix + edgeFileNames[type]), "UTF-8"), bufferSize);
+
+        String[] block = new String[nANNOTATIONS];
+        boolean firstBlock = true;
+        String line;
+        while ((line = graph.readLine()) != null) {
+            // blocks are separated by empty lines
+            if (line.isEmpty()) continue;
+            int source = Integer.parseInt(line);
+            for (int k=0; k<nANNOTATIONS; k++) {
+                block[k] = graph.readLine();
+            }
+
+            // new blocks for nodes that have no block in the existing graph
+            while (delta.hasEdge() && delta.sourceId < source) {
+                writeBlock(w, firstBlock, type, delta.sourceId, null, delta, degrees);
+                firstBlock = false;
+            }
+
+            if (delta.hasEdge() && delta.sourceId == source) {
+                writeBlock(w, firstBlock, type, source, block, delta, degrees);
+            } else {
+                // no new edges, copy the block
+                w.append((firstBlock ? "" : "\n\n") + source + "\n" + block[0]);
+                for (int k=1; k<nANNOTATIONS; k++) {
+                    w.append("\n" + block[k]);
+                }
+            }
+            firstBlock = false;
+        }
+
+        // new blocks after the last block of the existing graph
+        while (delta.hasEdge()) {
+            writeBlock(w, firstBlock, type, delta.sourceId, null, delta, degrees);
+            firstBlock = false;
+        }
+
+        graph.close();
+        delta.close();
+        w.close();
+    }
+
+    // write the block of a source node with its existing edges (if any) and all of its new edges
+    private void writeBlock(BufferedWriter w, boolean firstBlock, char type, int source, String[] existing,
+                            EdgeReader delta, TIntObjectHashMap<int[]> degrees) throws Exception {
+        int[] degree = new int[nANNOTATIONS];
+        w.append((firstBlock ? "" : "\n\n") + source + "\n");
+
+        for (char targetType=0; targetType<nANNOTATIONS; targetType++) {
+            w.append((targetType > 0 ? "\n" : "") + setNames[targetType]);
+
+            // existing line: <neighbour type> <target node 1> <edge weight 1> <target node 2> ...
+            String[] entries = (existing != null) ? existing[targetType].split(sepChar) : new String[1];
+            int e = 1;
+            while (true) {
+                boolean hasExisting = e + 1 < entries.length;
+                boolean hasNew = delta.hasEdge() && delta.sourceId == source && delta.targetType == targetType;
+                if (!hasExisting && !hasNew) break;
+
+                int rv = !hasNew ? -1 : !hasExisting ? 1 : Integer.compare(Integer.parseInt(entries[e]), delta.targetId);
+                if (rv < 0) {
+                    w.append(sepChar + entries[e] + sepChar + entries[e+1]);
+                    e += 2;
+                } else if (rv > 0) {
+                    w.append(sepChar + delta.targetId + sepChar + delta.weight);
+                    delta.advance();
+                } else {
+                    w.append(sepChar + entries[e] + sepChar + addWeights(entries[e+1], delta.weight, type, targetType));
+                    e += 2;
+                    delta.advance();
+                }
+                degree[targetType]++;
+            }
+        }
+        degrees.put(source, degree);
+    }
+
+    // edges to terms, pages and sentences have integer weights, all others are sums of similarities
+    private static String addWeights(String w1, String w2, char sourceType, char targetType) throws Exception {
+        if (sourceType >= TER || targetType >= TER) {
+            return String.valueOf(Integer.parseInt(w1) + Integer.parseInt(w2));
+        } else {
+            return df.format(df.parse(w1).floatValue() + df.parse(w2).floatValue());
+        }
+    }
+
+    // rewrite the vertex file with updated degrees and append the new nodes
+    private void mergeNodes(char type, int setSize, TIntObjectHashMap<int[]> degrees) throws Exception {
+        BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(outfolder + vertexFileNames[type]), "UTF-8"));
+        BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpfolder + mergedPrefix + vertexFileNames[type]), "UTF-8"), bufferSize);
+
+        String line;
+        int id = 0;
+        while ((line = bf.readLine()) != null) {
+            int[] degree = degrees.get(id);
+            if (degree == null) {
+                w.append(line + "\n");
+            } else {
+                writeNode(w, line.substring(0, line.indexOf(sepChar)), degree);
+            }
+            id++;
+        }
+        bf.close();
+
+        // names of the new nodes
+        String[] nodeNames = new String[setSize - baseSizes[type]];
+        bf = new BufferedReader(new InputStreamReader(new FileInputStream(ParallelExtractNetworkFromMongo.temporaryNodeFileName(type)), "UTF-8"));
+        while ((line = bf.readLine()) != null) {
+            String[] splitline = line.split(sepChar);
+            nodeNames[Integer.parseInt(splitline[0]) - baseSizes[type]] = (splitline.length > 1) ? splitline[1] : " ";
+        }
+        bf.close();
+
+        for (int i=0; i<nodeNames.length; i++) {
+            int[] degree = degrees.get(baseSizes[type] + i);
+            writeNode(w, nodeNames[i], (degree != null) ? degree : new int[nANNOTATIONS]);
+        }
+        w.close();
+    }
+
+    private static void writeNode(BufferedWriter w, String name, int[] degree) throws Exception {
+        w.append(name);
+        for (int k=0; k<nANNOTATIONS; k++) {
+            w.append(sepChar + degree[k]);
+        }
+        w.append("\n");
+    }
+
+    private static void replaceFile(String mergedFile, String filename) throws Exception {
+        Files.move(new File(mergedFile).toPath(), new File(outfolder + filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // sequential reader for a sorted file of aggregated edges
+    private static class EdgeReader {
+        private BufferedReader bf;
+        private boolean hasEdge;
+        public int sourceId;
+        public char targetType;
+        public int targetId;
+        public String weight;
+
+        public EdgeReader(String filename) throws Exception {
+            // the edges of the new pages may be in a compressed temporary file
+            bf = new BufferedReader(new InputStreamReader(TemporaryFiles.open(new File(filename), bufferSize), "UTF-8"));
+            advance();
+        }
+
+        public boolean hasEdge() {
+            return hasEdge;
+        }
+
+        public void advance() throws Exception {
+            String line = bf.readLine();
+            hasEdge = (line != null);
+            if (hasEdge) {
+                String[] splitline = line.split(sepChar);
+                targetType = splitline[1].charAt(0);
+                sourceId = Integer.parseInt(splitline[2]);
+                targetId = Integer.parseInt(splitline[3]);
+                weight = splitline[4];
+            }
+        }
+
+        public void close() throws Exception {
+            bf.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+
+            if (!new File(outfolder + metaFileName).exists()) {
+                System.out.println("No existing graph found in " + outfolder);
+                return;
+            }
+
+            // only the temporary folder is cleaned, the existing graph stays untouched until the merge
+            ParallelExtractNetworkFromMongo.setUpTemporaryFolder();
+
+            IncrementalGraphUpdate update = new IncrementalGraphUpdate();
+            ArrayList<NodeDictionary> valueToIdMaps = update.readExistingDictionaries();
+
+            // read the new pages and write temporary edge information of unaggregated edge lists
+            ParallelExtractNetworkFromMongo enfm = new ParallelExtractNetworkFromMongo(null, valueToIdMaps, update.getBaseSizes(),
+                                                                              update.getExistingPages());
+            valueToIdMaps = null;
+            if (!enfm.completeStage(Checkpoint.stageExtraction, enfm.extractionSucceeded())) return;
+            if (enfm.getUnaggregatedEdgeCount() == 0) {
+                System.out.println("No new edges. The graph is up to date.");
+                return;
+            }
+            System.gc();
+
+            // write temporary node information for the new nodes and the updated metadata
+            if (!enfm.completeStage(Checkpoint.stageNodes, enfm.writeTemporaryNodesToFiles())) return;
+            System.gc();
+
+            // sort, aggregate and split the new edges (same as for a new graph)
+            if (!enfm.completeStage(Checkpoint.stageSorting, enfm.sortUnaggregatedEdgelistExternally())) return;
+            System.gc();
+            if (!enfm.completeStage(Checkpoint.stageAggregation, enfm.aggregateEdgesAndSplitIntoIndividualFiles())) return;
+            System.gc();
+            if (!enfm.completeStage(Checkpoint.stageSplitSorting, enfm.sortIndividualEdgeFiles())) return;
+            System.gc();
+
+            // merge the new edges and nodes into the existing graph files
+            if (!enfm.completeStage(Checkpoint.stageFinalization,
+                                    update.mergeIntoExistingGraph(ParallelExtractNetworkFromMongo.getSetSizes()))) return;
+
+            System.out.println("Done.");
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
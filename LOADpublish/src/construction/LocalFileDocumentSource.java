@@ -0,0 +1,374 @@
+package construction;
+
+import static settings.SystemSettings.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+// mongoDB imports
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+
+// trove library imports
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Reads pages with their sentences and annotations from a local file that contains one record per page.
+ * Each record is a document of the form
+ *   { <page id>: 123, <sentences>: [ ... ], <annotations>: [ ... ] }
+ * where sentences and annotations have the same fields as in the mongoDB collections. Records are
+ * either stored as concatenated BSON documents (files ending in .bson) or as one JSON document per line.
+ *
+ * The file is memory-mapped in segments and indexed by page ID when the source is opened, so that
+ * pages can be read in any order and by multiple threads at disk speed. The index only reads the page ID
+ * and counts the sentences and annotations of each record without decoding it (see readHeader). Several
+ * records with the same page ID are returned as a single page (as the pages of the mongoDB source).
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class LocalFileDocumentSource implements DocumentSource {
+
+    // maximum size of a single mapped segment of the file (records may not be larger than this)
+    private static final long maxSegmentSize = 1L << 30;
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final DocumentCodec codec = new DocumentCodec();
+
+    private RandomAccessFile raf;
+    private boolean bson;
+    private List<MappedByteBuffer> segments;
+
+    // position of each record: segment, offset within the segment and length, and the next record of the
+    // same page (or -1)
+    private TIntArrayList recordSegment;
+    private TIntArrayList recordOffset;
+    private TIntArrayList recordLength;
+    private TIntArrayList recordNext;
+    private TIntIntHashMap pageToRecord;
+    private int[] pageIDs;
+    private TIntArrayList pageAnnotations;
+    private TIntArrayList pageSentences;
+
+    private long nSentences;
+    private long nAnnotations;
+
+    public LocalFileDocumentSource(String filename) throws IOException {
+        File file = new File(filename);
+        bson = filename.endsWith(".bson");
+        raf = new RandomAccessFile(file, "r");
+        segments = new ArrayList<MappedByteBuffer>();
+        recordSegment = new TIntArrayList();
+        recordOffset = new TIntArrayList();
+        recordLength = new TIntArrayList();
+        recordNext = new TIntArrayList();
+        pageToRecord = new TIntIntHashMap();
+        pageAnnotations = new TIntArrayList();
+        pageSentences = new TIntArrayList();
+        nSentences = 0;
+        nAnnotations = 0;
+
+        System.out.println("Indexing pages in " + filename);
+        buildIndex();
+        System.out.println("Found " + pageIDs.length + " pages, " + nSentences + " sentences and "
+                           + nAnnotations + " annotations.");
+    }
+
+    // map the file segment by segment and record the position of every page record
+    private void buildIndex() throws IOException {
+        FileChannel channel = raf.getChannel();
+        long fileSize = channel.size();
+        TIntArrayList ids = new TIntArrayList();
+        
+        // index of each page in the list of IDs and the last record of each page (while indexing)
+        TIntIntHashMap pageToIndex = new TIntIntHashMap();
+        TIntIntHashMap pageToLastRecord = new TIntIntHashMap();
+        int[] header = new int[3];
+
+        long segmentStart = 0;
+        while (segmentStart < fileSize) {
+            long segmentSize = Math.min(maxSegmentSize, fileSize - segmentStart);
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentSize);
+            segments.add(segment);
+            int segmentIndex = segments.size() - 1;
+            boolean lastSegment = (segmentStart + segmentSize == fileSize);
+
+            // records must not cross segment borders. The next segment starts at the first incomplete record.
+            int offset = 0;
+            while (true) {
+                int length = recordLength(segment, offset, lastSegment);
+                if (length < 0) {
+                    break;
+                }
+                if (length > 0) {
+                    readHeader(segment, offset, length, header);
+                    int pageId = header[0];
+                    nSentences += header[1];
+                    nAnnotations += header[2];
+
+                    int record = recordSegment.size();
+                    recordSegment.add(segmentIndex);
+                    recordOffset.add(offset);
+                    recordLength.add(length);
+                    recordNext.add(-1);
+                    if (pageToIndex.containsKey(pageId)) {
+                        // another record of a page that was already found
+                        int index = pageToIndex.get(pageId);
+                        pageSentences.setQuick(index, pageSentences.getQuick(index) + header[1]);
+                        pageAnnotations.setQuick(index, pageAnnotations.getQuick(index) + header[2]);
+                        recordNext.setQuick(pageToLastRecord.get(pageId), record);
+                    } else {
+                        pageToIndex.put(pageId, ids.size());
+                        pageToRecord.put(pageId, record);
+                        pageSentences.add(header[1]);
+                        pageAnnotations.add(header[2]);
+                        ids.add(pageId);
+                    }
+                    pageToLastRecord.put(pageId, record);
+                }
+                offset += bson ? length : length + 1;
+            }
+            if (offset == 0) {
+                throw new IOException("Page record at position " + segmentStart + " is incomplete or too large.");
+            }
+            segmentStart += offset;
+            System.out.print("\rIndexed " + (100 * Math.min(segmentStart, fileSize) / fileSize) + "% of the input file.     ");
+        }
+        System.out.println();
+        pageIDs = ids.toArray();
+    }
+
+    /* Returns the length of the record that starts at offset or -1 if the record is not completely
+     * contained in the segment. For JSON lines, the length excludes the line break (empty lines have length 0)
+     */
+    private int recordLength(ByteBuffer segment, int offset, boolean lastSegment) {
+        int limit = segment.limit();
+        if (bson) {
+            if (offset + 4 > limit) {
+                return -1;
+            }
+            // BSON documents start with their total length as a little endian int32
+            int length = (segment.get(offset) & 0xff) | (segment.get(offset + 1) & 0xff) << 8
+                       | (segment.get(offset + 2) & 0xff) << 16 | (segment.get(offset + 3) & 0xff) << 24;
+            return (length > 0 && offset + length <= limit) ? length : -1;
+        } else {
+            for (int p=offset; p<limit; p++) {
+                if (segment.get(p) == '\n') {
+                    return p - offset;
+                }
+            }
+            // the last line of the file does not need a line break
+            if (lastSegment && offset < limit) {
+                return limit - offset;
+            }
+            return -1;
+        }
+    }
+
+    /* Read the page ID and the numbers of sentences and annotations of a record into the header. BSON records
+     * are read field by field, and the sentences and annotations are skipped by their lengths. JSON records
+     * are scanned once without parsing them. Records whose page ID is not a plain number are decoded.
+     */
+    private void readHeader(ByteBuffer segment, int offset, int length, int[] header) {
+        header[0] = 0;
+        header[1] = 0;
+        header[2] = 0;
+        boolean found = bson ? readBsonHeader(segment, offset, length, header) : readJsonHeader(segment, offset, length, header);
+        if (!found) {
+            Document record = decode(segment, offset, length);
+            header[0] = record.getInteger(mongoIdentSentence_pageId);
+            header[1] = getList(record, localSourceSentences).size();
+            header[2] = getList(record, localSourceAnnotations).size();
+        }
+    }
+
+    // returns false if the record has no page ID of type int32
+    private boolean readBsonHeader(ByteBuffer segment, int offset, int length, int[] header) {
+        ByteBuffer view = segment.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        BsonBinaryReader reader = new BsonBinaryReader(view.slice());
+        try {
+            boolean found = false;
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String name = reader.readName();
+                int field = name.equals(localSourceSentences) ? 1 : name.equals(localSourceAnnotations) ? 2 : -1;
+                if (name.equals(mongoIdentSentence_pageId) && reader.getCurrentBsonType() == BsonType.INT32) {
+                    header[0] = reader.readInt32();
+                    found = true;
+                } else if (field > 0 && reader.getCurrentBsonType() == BsonType.ARRAY) {
+                    reader.readStartArray();
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                        reader.skipValue();
+                        header[field]++;
+                    }
+                    reader.readEndArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            return found;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /* Counts the elements of the sentences and annotations arrays by their commas at the top level of the
+     * arrays (strings are skipped, so that their content is not counted). Returns false if the page ID is not
+     * written as a plain number.
+     */
+    private boolean readJsonHeader(ByteBuffer segment, int offset, int length, int[] header) {
+        int end = offset + length;
+        int depth = 0;
+        boolean keyExpected = false;
+        String key = null;
+        int field = -1;
+        boolean empty = true;
+        boolean found = false;
+        for (int p=offset; p<end; p++) {
+            byte b = segment.get(p);
+            if (b == ' ' || b == '\t' || b == '\r') {
+                continue;
+            }
+            // the first element of a counted array
+            if (depth == 2 && field > 0 && empty && b != ']') {
+                header[field] = 1;
+                empty = false;
+            }
+            if (b == '"') {
+                int close = p + 1;
+                while (close < end && segment.get(close) != '"') {
+                    close += (segment.get(close) == '\\') ? 2 : 1;
+                }
+                if (depth == 1 && keyExpected) {
+                    byte[] bytes = new byte[Math.max(0, Math.min(close, end) - p - 1)];
+                    for (int i=0; i<bytes.length; i++) {
+                        bytes[i] = segment.get(p + 1 + i);
+                    }
+                    key = new String(bytes, utf8);
+                    keyExpected = false;
+                }
+                p = close;
+            } else if (b == '{' || b == '[') {
+                if (depth == 1 && b == '[' && key != null) {
+                    field = key.equals(localSourceSentences) ? 1 : key.equals(localSourceAnnotations) ? 2 : -1;
+                    empty = true;
+                }
+                depth++;
+                keyExpected = (depth == 1);
+            } else if (b == '}' || b == ']') {
+                depth--;
+                if (depth == 1) {
+                    field = -1;
+                }
+            } else if (b == ',') {
+                if (depth == 1) {
+                    keyExpected = true;
+                } else if (depth == 2 && field > 0) {
+                    header[field]++;
+                }
+            } else if (depth == 1 && !found && mongoIdentSentence_pageId.equals(key) && (b == '-' || (b >= '0' && b <= '9'))) {
+                long value = 0;
+                int q = (b == '-') ? p + 1 : p;
+                while (q < end && segment.get(q) >= '0' && segment.get(q) <= '9') {
+                    value = 10 * value + (segment.get(q) - '0');
+                    if (value > Integer.MAX_VALUE + 1L) {
+                        return false;
+                    }
+                    q++;
+                }
+                value = (b == '-') ? -value : value;
+                if (q == ((b == '-') ? p + 1 : p) || value > Integer.MAX_VALUE
+                    || (q < end && (segment.get(q) == '.' || segment.get(q) == 'e' || segment.get(q) == 'E'))) {
+                    return false;
+                }
+                header[0] = (int) value;
+                found = true;
+                p = q - 1;
+            }
+        }
+        return found;
+    }
+
+    // decode a single record. Works on a private view of the buffer, so that it is safe for concurrent use
+    private Document decode(ByteBuffer segment, int offset, int length) {
+        ByteBuffer view = segment.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        if (bson) {
+            BsonBinaryReader reader = new BsonBinaryReader(view.slice());
+            try {
+                return codec.decode(reader, DecoderContext.builder().build());
+            } finally {
+                reader.close();
+            }
+        } else {
+            byte[] bytes = new byte[length];
+            view.get(bytes);
+            return Document.parse(new String(bytes, utf8));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Document> getList(Document record, String key) {
+        Object list = record.get(key);
+        return (list != null) ? (List<Document>) list : new ArrayList<Document>(0);
+    }
+
+    @Override
+    public long countSentences() {
+        return nSentences;
+    }
+
+    @Override
+    public long countAnnotations() {
+        return nAnnotations;
+    }
+
+    // pages are returned in the order in which they appear in the file
+    @Override
+    public PageList scanPages() {
+        return new PageList(pageIDs.clone(), pageAnnotations.toArray(), pageSentences.toArray());
+    }
+
+    @Override
+    public PageBundle getPage(int pageId) throws IOException {
+        PageBundle page = new PageBundle(pageId);
+        if (!pageToRecord.containsKey(pageId)) {
+            return page;
+        }
+
+        for (int record=pageToRecord.get(pageId); record>=0; record=recordNext.get(record)) {
+            Document doc = decode(segments.get(recordSegment.get(record)), recordOffset.get(record), recordLength.get(record));
+            for (Document sentence : getList(doc, localSourceSentences)) {
+                page.addSentence(sentence);
+            }
+            for (Document annotation : getList(doc, localSourceAnnotations)) {
+                page.addAnnotation(annotation);
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
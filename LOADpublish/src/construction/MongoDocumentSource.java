@@ -0,0 +1,302 @@
+package construction;
+
+import static settings.SystemSettings.*;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// mongoDB imports
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import static com.mongodb.client.model.Accumulators.sum;
+import static com.mongodb.client.model.Aggregates.group;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Sorts.descending;
+
+// trove library imports
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Reads pages with their sentences and annotations from the collections of a mongoDB
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class MongoDocumentSource implements DocumentSource {
+
+    private MongoClient mongoClient;
+    private MongoCollection<Document> cANN;
+    private MongoCollection<Document> cSEN;
+    
+    // pages are only fetched while a connection of the pool is free, so that no request has to wait in
+    // the (limited) wait queue of the driver, no matter how many threads fetch pages at the same time
+    private Semaphore connections = new Semaphore(mongoConnectionsPerHost, true);
+
+    public MongoDocumentSource() {
+        Logger mongoLogger = Logger.getLogger("org.mongodb.driver");
+        mongoLogger.setLevel(Level.WARNING);
+
+        MongoClientOptions options = MongoClientOptions.builder()
+                                         .connectionsPerHost(mongoConnectionsPerHost)
+                                         .build();
+        
+        ServerAddress address = new ServerAddress(MongoAdress, MongoPort);
+        if (mongocred != null) {
+            mongoClient = new MongoClient(address, Arrays.asList(mongocred), options);
+        } else {
+            mongoClient = new MongoClient(address, options);
+        }
+        MongoDatabase db = mongoClient.getDatabase(MongoDBname);
+        cANN = db.getCollection(MongoCollectionAnnotations);
+        cSEN = db.getCollection(MongoCollectionSentences);
+    }
+
+    @Override
+    public long countSentences() {
+        return cSEN.count();
+    }
+
+    @Override
+    public long countAnnotations() {
+        return cANN.count();
+    }
+
+    /* The number of annotations per page is counted during the scan, the number of sentences is unknown.
+     * Depending on SystemSettings.pageIdDiscovery, the counting is done by the server (aggregate), by
+     * several threads that each scan a range of annotation _ids (parallel) or on a single cursor (scan).
+     * Unless the server aggregates, only the page ID field of the annotations is transferred.
+     */
+    @Override
+    public PageList scanPages() throws Exception {
+        TIntIntHashMap annotationCounts = null;
+
+        if (pageIdDiscovery.equals(discoveryAggregate)) {
+            try {
+                System.out.println("Counting annotations by page ID in the database.");
+                annotationCounts = aggregatePageIDs();
+            } catch (Exception e) {
+                System.out.println("Aggregation of page IDs failed. Scanning annotations instead.");
+                e.printStackTrace();
+            }
+        }
+
+        if (annotationCounts == null) {
+            long nAnnotations = cANN.count();
+            System.out.println("Found " + nAnnotations + " annotations. Searching for page IDs.");
+            Object[] bounds = null;
+            if (!pageIdDiscovery.equals(discoverySequential) && nDiscoveryThreads > 1) {
+                bounds = splitIdRange(nDiscoveryThreads);
+            }
+            annotationCounts = (bounds != null) ? scanPageIDsInParallel(bounds, nAnnotations)
+                                                : scanPageIDs(null, null, nAnnotations, new AtomicLong());
+            System.out.println();
+        }
+
+        int[] ids = annotationCounts.keys();
+        int[] counts = new int[ids.length];
+        for (int i=0; i<ids.length; i++) {
+            counts[i] = annotationCounts.get(ids[i]);
+        }
+        return new PageList(ids, counts, new int[ids.length]);
+    }
+
+    // let the server group the annotations by page ID and count them
+    private TIntIntHashMap aggregatePageIDs() {
+        TIntIntHashMap annotationCounts = new TIntIntHashMap();
+        MongoCursor<Document> cursor = cANN.aggregate(Arrays.asList(group("$" + mongoIdentAnnotation_pageId, sum("n", 1))))
+                                           .allowDiskUse(true).iterator();
+        try {
+            while (cursor.hasNext()) {
+                Document obj = cursor.next();
+                annotationCounts.put(obj.getInteger("_id"), obj.getInteger("n"));
+            }
+        } finally {
+            cursor.close();
+        }
+        return annotationCounts;
+    }
+
+    // scan the annotations with _id in [from, to) (null for an open end) and count them by page ID
+    private TIntIntHashMap scanPageIDs(Object from, Object to, long nAnnotations, AtomicLong scanned) {
+        TIntIntHashMap annotationCounts = new TIntIntHashMap();
+        DecimalFormat dform = new DecimalFormat("##.#");
+        long step = Math.max(1, nAnnotations / 1000);
+
+        ArrayList<Bson> filters = new ArrayList<Bson>();
+        if (from != null) {
+            filters.add(gte(mongoIdentAnnotation_id, from));
+        }
+        if (to != null) {
+            filters.add(lt(mongoIdentAnnotation_id, to));
+        }
+        Bson filter = filters.isEmpty() ? new Document() : and(filters);
+
+        MongoCursor<Document> annotationCursor = cANN.find(filter)
+                                                     .projection(fields(include(mongoIdentAnnotation_pageId), excludeId()))
+                                                     .noCursorTimeout(true).iterator();
+        try {
+            while (annotationCursor.hasNext()) {
+                Document obj = annotationCursor.next();
+                annotationCounts.adjustOrPutValue(obj.getInteger(mongoIdentAnnotation_pageId), 1, 1);
+
+                long current = scanned.incrementAndGet();
+                if (current % step == 0) {
+                    System.out.print("\rSearched " + dform.format(100.0 * current / nAnnotations) + "% of annotations.     ");
+                }
+            }
+        } finally {
+            annotationCursor.close();
+        }
+        return annotationCounts;
+    }
+
+    // scan the ranges between consecutive bounds with one thread each and merge the counts
+    private TIntIntHashMap scanPageIDsInParallel(final Object[] bounds, final long nAnnotations) throws Exception {
+        final AtomicLong scanned = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(bounds.length - 1);
+        ArrayList<Future<TIntIntHashMap>> results = new ArrayList<Future<TIntIntHashMap>>();
+        for (int i=0; i<bounds.length-1; i++) {
+            final Object from = bounds[i];
+            final Object to = bounds[i+1];
+            results.add(executor.submit(new Callable<TIntIntHashMap>() {
+                @Override
+                public TIntIntHashMap call() {
+                    return scanPageIDs(from, to, nAnnotations, scanned);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        TIntIntHashMap annotationCounts = new TIntIntHashMap();
+        for (Future<TIntIntHashMap> result : results) {
+            TIntIntHashMap partial = result.get();
+            for (TIntIntIterator it = partial.iterator(); it.hasNext(); ) {
+                it.advance();
+                annotationCounts.adjustOrPutValue(it.key(), it.value(), it.value());
+            }
+        }
+        return annotationCounts;
+    }
+
+    /* Split the range of annotation _ids into n ranges. The first and the last bound are null (open ends).
+     * This is possible for ObjectIds (split by their timestamp) and numeric _ids. Returns null otherwise.
+     */
+    private Object[] splitIdRange(int n) {
+        Document first = cANN.find().projection(include(mongoIdentAnnotation_id)).sort(ascending(mongoIdentAnnotation_id)).first();
+        Document last = cANN.find().projection(include(mongoIdentAnnotation_id)).sort(descending(mongoIdentAnnotation_id)).first();
+        if (first == null || last == null) {
+            return null;
+        }
+        Object min = first.get(mongoIdentAnnotation_id);
+        Object max = last.get(mongoIdentAnnotation_id);
+
+        Object[] bounds = new Object[n + 1];
+        for (int i=1; i<n; i++) {
+            if (min instanceof ObjectId && max instanceof ObjectId) {
+                long tmin = ((ObjectId) min).getTimestamp();
+                long tmax = ((ObjectId) max).getTimestamp();
+                bounds[i] = smallestObjectId((int) (tmin + (tmax - tmin + 1) * i / n));
+            } else if ((min instanceof Integer || min instanceof Long) && (max instanceof Integer || max instanceof Long)) {
+                long vmin = ((Number) min).longValue();
+                long vmax = ((Number) max).longValue();
+                bounds[i] = vmin + (vmax - vmin + 1) * i / n;
+            } else {
+                return null;
+            }
+        }
+        return bounds;
+    }
+
+    // smallest ObjectId with the given timestamp (all other bytes are zero)
+    private static ObjectId smallestObjectId(int timestamp) {
+        byte[] bytes = new byte[12];
+        bytes[0] = (byte) (timestamp >> 24);
+        bytes[1] = (byte) (timestamp >> 16);
+        bytes[2] = (byte) (timestamp >> 8);
+        bytes[3] = (byte) timestamp;
+        return new ObjectId(bytes);
+    }
+
+    @Override
+    public PageBundle getPage(int pageId) {
+        // each query of a page is finished before the next one is started, so a page needs a single connection
+        connections.acquireUninterruptibly();
+        try {
+            return fetchPage(pageId);
+        } finally {
+            connections.release();
+        }
+    }
+
+    private PageBundle fetchPage(int pageId) {
+        PageBundle page = new PageBundle(pageId);
+
+        // ensure that cursor cannot time out during write operations
+        MongoCursor<Document> sentenceCursor = cSEN.find(new Document(mongoIdentSentence_pageId, pageId))
+                                                       .noCursorTimeout(true).iterator();
+        try {
+            while (sentenceCursor.hasNext()) {
+                page.addSentence(sentenceCursor.next());
+            }
+        } finally {
+            sentenceCursor.close();
+        }
+
+        if (bulkAnnotationFetch) {
+            // get all annotations of the page with a single query
+            addAnnotations(page, cANN.find(eq(mongoIdentAnnotation_pageId, pageId))
+                                     .noCursorTimeout(true).iterator());
+        } else {
+            // get the annotations of each sentence individually
+            for (Document objSEN : page.sentences) {
+                int sentence_id = objSEN.getInteger(mongoIdentSentence_sentenceId);
+                addAnnotations(page, cANN.find(and(eq(mongoIdentAnnotation_pageId, pageId),
+                                                   eq(mongoIdentAnnotation_sentenceId, sentence_id)
+                                                  )
+                                              ).noCursorTimeout(true).iterator());
+            }
+        }
+
+        return page;
+    }
+
+    private void addAnnotations(PageBundle page, MongoCursor<Document> annotationCursor) {
+        try {
+            while (annotationCursor.hasNext()) {
+                page.addAnnotation(annotationCursor.next());
+            }
+        } finally {
+            annotationCursor.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        mongoClient.close();
+    }
+}
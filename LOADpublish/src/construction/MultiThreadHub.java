@@ -1,18 +1,24 @@
 package construction;
 
-import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.list.array.TLongArrayList;
 
-import java.io.BufferedWriter;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import externalsort.EdgeRunBuffer;
+import externalsort.EdgeRunSet;
 import settings.LOADmodelSettings;
+import settings.SystemSettings;
 
 /**
  * Coordinates the work of LOAD graph construction workers on a by-document basis
- * Synchronizes graph node labeling across worker threads.
+ * Synchronizes graph node labeling across worker threads. Edges are not synchronized: each worker writes
+ * its own sorted runs of edges (see EdgeRunSet).
  * 
  * Originally published July 2016 at
  * http://dbs.ifi.uni-heidelberg.de/?id=load
@@ -20,15 +26,27 @@ import settings.LOADmodelSettings;
  */
 public class MultiThreadHub {
     private int[] pageIDs;
-    private int nextPageID;
-    private ArrayList<TObjectIntHashMap<String>> valueToIdMaps;
-    private int[] currentIDs;
-    private BufferedWriter edgeWriter;
+    private long[] costPrefix;
+    private AtomicInteger nextPageID;
+    private int nThreads;
+    
+    // range [start, end) of page indexes that is currently processed by each thread
+    private ThreadLocal<int[]> pageChunk = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[2];
+        }
+    };
+    private ArrayList<NodeDictionary> valueToIdMaps;
+    private SequentialNodeSet[] sequentialNodes;
+    private EdgeRunSet edgeRuns;
     public CountDownLatch latch;
     
+    // the first error of a worker (the extraction fails and no more pages are handed out)
+    private volatile Throwable failure;
+    
     // notifier variables
-    private int nextpromille;
-    private double promillecount;
+    private AtomicInteger printedPromille;
     DecimalFormat dform = new DecimalFormat("##.#");
     
     // statistics variables
@@ -39,17 +57,29 @@ public class MultiThreadHub {
     private HashSet<String> invalidTypes;
     private int[] count_ValidAnnotationsByType;
     private int negativeOffsetCount;
+    private int processedSentences;
+    private int processedAnnotations;
+    private long startTime;
+    private TLongArrayList finishTimes;
+    private long nearCacheHits;
+    private long nearCacheMisses;
+    private long sharedLookups;
+    private long resolveCalls;
+    private long combinedEdges;
+    private long combinedRecords;
     
-    public MultiThreadHub(int[] pageIDs, ArrayList<TObjectIntHashMap<String>> valueToIdMaps, int[] currentIDs, BufferedWriter ew, int nThreads) {
+    public MultiThreadHub(int[] pageIDs, long[] costPrefix, ArrayList<NodeDictionary> valueToIdMaps,
+                          SequentialNodeSet[] sequentialNodes, EdgeRunSet edgeRuns, int nThreads) {
         this.pageIDs = pageIDs;
-        nextPageID = 0;
+        this.costPrefix = costPrefix;
+        nextPageID = new AtomicInteger(0);
+        this.nThreads = nThreads;
         this.valueToIdMaps = valueToIdMaps;
-        this.currentIDs = currentIDs;
-        this.edgeWriter = ew;
+        this.sequentialNodes = sequentialNodes;
+        this.edgeRuns = edgeRuns;
         
         // notifier variables
-        nextpromille = pageIDs.length / 1000;
-        promillecount = 0;
+        printedPromille = new AtomicInteger(0);
         
         // statistics variables
         validAnnotations = 0;
@@ -59,54 +89,106 @@ public class MultiThreadHub {
         invalidTypes = new HashSet<String>();
         count_ValidAnnotationsByType = new int [LOADmodelSettings.nANNOTATIONS];
         negativeOffsetCount = 0;
+        processedSentences = 0;
+        processedAnnotations = 0;
+        startTime = System.nanoTime();
+        finishTimes = new TLongArrayList();
         
         // count down latch
         latch = new CountDownLatch(nThreads);
     }
     
-    // returns ID of next page or null if all pages are done
-    public synchronized Integer getPageID() {
-        Integer retval;
-        if (nextPageID < pageIDs.length) {
-            retval = pageIDs[nextPageID];
-            nextPageID++;
-            
-            if (nextPageID == nextpromille) {
-                nextpromille += pageIDs.length / 1000;
-                promillecount += 0.1;
-                System.out.print("\rRead " + dform.format(promillecount) + "% of pages.    ");
+    /* returns ID of next page or null if all pages are done
+     * Pages are handed out to the threads in chunks of consecutive pages, so that threads only rarely
+     * have to compete for the next chunk. The chunk size decreases with the number of remaining pages,
+     * so that all threads still finish at about the same time (guided scheduling). If the estimated
+     * costs of the pages are known, chunks are sized by cost instead of by number of pages.
+     */
+    public Integer getPageID() {
+        if (failure != null) {
+            return null;
+        }
+        int[] chunk = pageChunk.get();
+        if (chunk[0] >= chunk[1]) {
+            if (!nextChunk(chunk)) {
+                return null;
             }
-            
-        } else {
-            retval = null;
         }
-        return retval;
+        return pageIDs[chunk[0]++];
     }
     
-    // get a node id from a node-type value to id map or create one of it does not exist
-    public int getAnnotationID(char type, String value) {
-        int annotationID;
-        TObjectIntHashMap<String> map = valueToIdMaps.get(type);
-        
-        synchronized (map) {
-            if (map.containsKey(value)) {
-                annotationID = map.get(value);
+    // claim the next chunk of pages for the current thread
+    private boolean nextChunk(int[] chunk) {
+        while (true) {
+            int start = nextPageID.get();
+            int remaining = pageIDs.length - start;
+            if (remaining <= 0) {
+                return false;
+            }
+            int size;
+            if (costPrefix != null) {
+                size = pagesWithinCost(start, (costPrefix[pageIDs.length] - costPrefix[start]) / (2 * nThreads));
             } else {
-                annotationID = currentIDs[type]++;
-                map.put(value, annotationID);
+                size = remaining / (2 * nThreads);
+            }
+            size = Math.max(1, Math.min(SystemSettings.maxPageChunkSize, size));
+            if (nextPageID.compareAndSet(start, start + size)) {
+                chunk[0] = start;
+                chunk[1] = start + size;
+                printProgress(start + size);
+                return true;
             }
         }
-        
-        return annotationID;
     }
     
-    // write resulting edges to file
-    public synchronized void writeEdges(ArrayList<String> edgeList) throws Exception {
-        for (String s : edgeList) {
-            edgeWriter.append(s);
+    // number of consecutive pages starting at start whose summed cost does not exceed the given cost
+    private int pagesWithinCost(int start, long cost) {
+        int pos = Arrays.binarySearch(costPrefix, start, costPrefix.length, costPrefix[start] + cost);
+        int end = (pos >= 0) ? pos : -pos - 2;
+        return end - start;
+    }
+    
+    // print the progress whenever a new promille of pages was handed out (outside of any lock)
+    private void printProgress(int handedOut) {
+        int promille = (int) (1000L * handedOut / pageIDs.length);
+        int printed = printedPromille.get();
+        if (promille > printed && printedPromille.compareAndSet(printed, promille)) {
+            System.out.print("\rRead " + dform.format(promille / 10.0) + "% of pages.    ");
         }
     }
     
+    // get a node id from a node-type value to id map or create one of it does not exist
+    // (known values are looked up without locking, see NodeDictionary)
+    public int getAnnotationID(char type, String value) {
+        return valueToIdMaps.get(type).getID(value);
+    }
+    
+    // get the node ids of several values of the same type at once (see NodeDictionary.getIDs)
+    public int[] getAnnotationIDs(char type, ArrayList<String> values) {
+        return valueToIdMaps.get(type).getIDs(values);
+    }
+    
+    // assign new consecutive node ids to pages or sentences (which occur only once) and return the first id
+    public int getSequentialIDs(char type, ArrayList<String> values) throws Exception {
+        return sequentialNodes[type].add(values);
+    }
+    
+    // sort the edges of a worker and write them as a new run (no lock is needed, each run has its own file)
+    public void writeRun(EdgeRunBuffer run) throws IOException {
+        edgeRuns.write(run);
+    }
+    
+    // record an error of a worker, which makes the extraction fail (only the first error is kept)
+    public synchronized void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+    
+    public Throwable getFailure() {
+        return failure;
+    }
+    
     // update the individual thread statistics
     public synchronized void updateStatistics(int validAnnotations, long unaggregatedEdges, int failedSentences,
                                               int annotationsInvalidType, HashSet<String> invalidTypes, int[] validAnnotationsByType,
@@ -121,6 +203,48 @@ public class MultiThreadHub {
             this.count_ValidAnnotationsByType[i] += validAnnotationsByType[i];
         }
         this.negativeOffsetCount += negativeOffsetCount;
+        finishTimes.add(System.nanoTime());
+    }
+    
+    // sum up the near-cache statistics of the workers
+    // pages that could not be fetched are counted like the sentences that failed (as by the workers)
+    public synchronized void updateFailedPages(int failedPages) {
+        failedSentences += failedPages;
+    }
+    
+    // sentences and annotations (valid or not) of all pages that were processed
+    public synchronized void updatePageStatistics(int sentences, int annotations) {
+        processedSentences += sentences;
+        processedAnnotations += annotations;
+    }
+    
+    public synchronized void updateCacheStatistics(long hits, long misses, long lookups, long calls) {
+        nearCacheHits += hits;
+        nearCacheMisses += misses;
+        sharedLookups += lookups;
+        resolveCalls += calls;
+    }
+    
+    // sum up the combiner statistics of the workers (edges before and after combining)
+    public synchronized void updateCombinerStatistics(long edges, long records) {
+        combinedEdges += edges;
+        combinedRecords += records;
+    }
+    
+    // report how long workers were idle at the end of the run while waiting for the last worker
+    public synchronized String getTailIdleReport() {
+        if (finishTimes.isEmpty()) {
+            return "No workers finished.";
+        }
+        long last = finishTimes.max();
+        long first = finishTimes.min();
+        long idle = 0;
+        for (int i=0; i<finishTimes.size(); i++) {
+            idle += last - finishTimes.get(i);
+        }
+        double totalThreadTime = (double) (last - startTime) * finishTimes.size();
+        return "Tail idle time: " + dform.format(idle / 1e9) + " thread-seconds (" + dform.format(100 * idle / totalThreadTime)
+               + "% of worker time). The last worker finished " + dform.format((last - first) / 1e9) + " seconds after the first.";
     }
     
     public synchronized int getValidAnnotations() { return validAnnotations; }
@@ -136,4 +260,14 @@ public class MultiThreadHub {
     public synchronized int[] getValidAnnotationsByType() { return count_ValidAnnotationsByType; }
     
     public synchronized int getNegativeOffsetCount() { return negativeOffsetCount; }
+    
+    public synchronized int getProcessedSentences() { return processedSentences; }
+    
+    public synchronized int getProcessedAnnotations() { return processedAnnotations; }
+    
+    // near-cache hits, near-cache misses, values resolved in the dictionaries and number of bulk resolve calls
+    public synchronized long[] getCacheStatistics() { return new long[] {nearCacheHits, nearCacheMisses, sharedLookups, resolveCalls}; }
+    
+    // edges that were given to the combiners and distinct edges that were written by them
+    public synchronized long[] getCombinerStatistics() { return new long[] {combinedEdges, combinedRecords}; }
 }
@@ -2,23 +2,27 @@ package construction;
 
 import static settings.LOADmodelSettings.*;
 import static settings.SystemSettings.*;
+import externalsort.EdgeRecord;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 // mongoDB imports
 import org.bson.Document;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoCursor;
-import static com.mongodb.client.model.Filters.and;
-import static com.mongodb.client.model.Filters.eq;
 
 // Porter stemmer library imports
 import org.tartarus.snowball.SnowballStemmer;
 
+// trove library imports
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
 /**
  * Creates a LOAD subgraph from a single document
  * 
@@ -29,312 +33,498 @@ import org.tartarus.snowball.SnowballStemmer;
 public class MultiThreadWorker implements Runnable {
     
     private MultiThreadHub hub;
-    private MongoCollection<Document> cANN;
-    private MongoCollection<Document> cSEN;
+    private DocumentSource source;
     HashSet<String> stopwords;
     
-    // internal variables
+    // internal variables (reused for all pages, see AnnotationBuffer)
+    // all annotations of the current page. The page itself is the first annotation, the sentences with valid
+    // annotations are stored as ranges: first entity, sentence, end of terms (the entities of the sentence
+    // come before the sentence, its terms after it)
+    private AnnotationBuffer annotations;
+    private TIntArrayList sentenceRanges;
+    private long[] pageOrder;
+    
+    // near-cache of node IDs for each node type (except sentences and pages, which are not repeated)
+    private TObjectIntHashMap<String>[] nearCache;
+    private TObjectIntHashMap<String>[] missIndex;
+    private ArrayList<String>[] missValues;
+    private long nearCacheHits;
+    private long nearCacheMisses;
+    private long sharedLookups;
+    private long resolveCalls;
     HashSet<String> invalidTypes;
+    private int invalidAnnotationCount;
+    private int annotationCounter;
     private int[] count_ValidAnnotationsByType;
     private SnowballStemmer stemmer;
     private long count_unaggregatedEdges;
     private int failedCount;
     private int negativeOffsetCount;
+    private int processedSentences;
+    private int processedAnnotations;
     private static Pattern pattern = Pattern.compile(datepattern);
     
-    public MultiThreadWorker(MultiThreadHub hub, MongoCollection<Document> cANN, MongoCollection<Document> cSEN, HashSet<String> stopwords) {
+    public MultiThreadWorker(MultiThreadHub hub, DocumentSource source, HashSet<String> stopwords) {
         this.hub = hub;
-        this.cANN = cANN;
-        this.cSEN = cSEN;
+        this.source = source;
         this.stopwords = stopwords;
         
         // internal variables
+        annotations = new AnnotationBuffer(1024);
+        sentenceRanges = new TIntArrayList();
+        pageOrder = new long[256];
+        nearCache = newMapArray();
+        missIndex = newMapArray();
+        missValues = newListArray();
         invalidTypes = new HashSet<String>();
+        invalidAnnotationCount = 0;
+        annotationCounter = 0;
         count_ValidAnnotationsByType = new int[nANNOTATIONS];
         count_unaggregatedEdges = 0;
         failedCount = 0;
         negativeOffsetCount = 0;
+        processedSentences = 0;
+        processedAnnotations = 0;
         
         // stemmer used for stemming terms
         stemmer = getStemmer(stemmerLanguage);
     }
-     
+    
+    /* The edges of all pages are collected and written as sorted runs (see EdgeSpiller). Pages and sentences
+     * that cannot be processed are skipped and counted as failed, but errors while writing the runs are recorded
+     * on the hub, which stops handing out pages and makes the extraction fail. The statistics are always
+     * reported, so that the hub does not wait for this worker forever.
+     */
     @Override
     public void run() {
         
-        ArrayList<Annotation> annotationsPage = new ArrayList<Annotation>();
-        ArrayList<Annotation> annotationsSentence = new ArrayList<Annotation>();
-        ArrayList<Annotation> annotationsTerms = new ArrayList<Annotation>();
-        
-        HashSet<String> invalidTypes = new HashSet<String>();
-        ArrayList<String> edges = new ArrayList<String>();
-        
-        int invalidAnnotationCount = 0;
-        int annotationCounter = 0;
+        TLongArrayList edges = new TLongArrayList();
+        EdgeSpiller spiller = new EdgeSpiller(hub);
         Integer page_id = null;
         
+        try {
+            while ( (page_id = hub.getPageID()) != null ) {
+            
+                edges.resetQuick();
+                
+                // get the page with all of its sentences and annotations
+                PageBundle page;
+                try {
+                    page = source.getPage(page_id);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failedCount++;
+                    continue;
+                }
+                
+                processPage(page, edges);
+                spiller.add(edges);
+            }
+            
+            spiller.finish();
+        } catch (Throwable t) {
+            hub.fail(t);
+        } finally {
+            finish();
+        }
+    }
+    
+    // turn a single page into (unaggregated) edges, which are added to the given list (two longs per edge, see EdgeRecord)
+    public void processPage(PageBundle page, TLongArrayList edges) {
+        
+        annotations.clear();
+        sentenceRanges.resetQuick();
+        processedSentences += page.sentences.size();
+        processedAnnotations += page.nAnnotations;
         
-        while ( (page_id = hub.getPageID()) != null ) {
+        // the page is the first annotation (its ID is only resolved if the page has valid sentences)
+        int pageAnnotation = annotations.add(Integer.toString(page.pageId), PAG, 0);
         
-            annotationsPage.clear();
-            edges.clear();
+        for (Document objSEN : page.sentences) {
+            int firstAnnotation = annotations.size();
                 
-            // ensure that cursor cannot time out during write operations
-            MongoCursor<Document> sentenceCursor = cSEN.find(new Document(mongoIdentSentence_pageId, page_id))
-                                                            .noCursorTimeout(true).iterator();
-            while (sentenceCursor.hasNext()) {
-                annotationsSentence.clear();
-                annotationsTerms.clear();
+            try {
+                String sentence_mongoid_str = objSEN.get(mongoIdentSentence_id).toString();
+                String sentenceContent = objSEN.getString(mongoIdentSentence_content);
+                int sentence_id = objSEN.getInteger(mongoIdentSentence_sentenceId);
+
+                // get list of all annotations in the sentence
+                Iterator<Document> annotationIterator = page.getAnnotations(sentence_id).iterator();
                     
-                try {
-                    Document objSEN = sentenceCursor.next();
-                    String pageId_str = Integer.toString(page_id);
-                    String sentence_mongoid_str = objSEN.get(mongoIdentSentence_id).toString();
-                    String sentenceContent = objSEN.getString(mongoIdentSentence_content);
-                    int sentence_id = objSEN.getInteger(mongoIdentSentence_sentenceId);
-    
-                    // get list of all annotations in the sentence
-                    MongoCursor<Document> annotationCursor = cANN.find(and(eq(mongoIdentAnnotation_pageId, page_id),
-                                                                           eq(mongoIdentAnnotation_sentenceId, sentence_id)
-                                                                          )
-                                                                      ).noCursorTimeout(true).iterator();
-                        
-                    if (annotationCursor.hasNext()) { // if there are annotations in the sentence
-                        boolean hasAnnotations = false;
-                        
-                        // create copy for deletion of annotated portions
-                        char[] mask = sentenceContent.toCharArray();
+                if (annotationIterator.hasNext()) { // if there are annotations in the sentence
+                    boolean hasAnnotations = false;
+                    
+                    // create copy for deletion of annotated portions
+                    char[] mask = sentenceContent.toCharArray();
+                    
+                    // DATES: 
+                    // iterate over temporal annotations and extract them to create nodes
+                    while (annotationIterator.hasNext()) {
+                        Document obj = annotationIterator.next();
+                        String annotationType_str = (String)obj.get(mongoIdentAnnotation_neClass);
                         
-                        // DATES: 
-                        // iterate over temporal annotations and extract them to create nodes
-                        while (annotationCursor.hasNext()) {
-                            Document obj = annotationCursor.next();
-                            String annotationType_str = (String)obj.get(mongoIdentAnnotation_neClass);
+                        char annotationType;
+                        if (annotationType_str.equals(dat)) {
+                            annotationType = DAT;
+                        } else if (annotationType_str.equals(loc)) {
+                            annotationType = LOC;
+                        } else if (annotationType_str.equals(act)) {
+                            annotationType = ACT;
+                        } else if (annotationType_str.equals(org)) {
+                            annotationType = ORG;
+                        } else {
+                            invalidTypes.add(annotationType_str);
+                            invalidAnnotationCount++;
+                            continue;
+                        }
                             
-                            char annotationType;
-                            if (annotationType_str.equals(dat)) {
-                                annotationType = DAT;
-                            } else if (annotationType_str.equals(loc)) {
-                                annotationType = LOC;
-                            } else if (annotationType_str.equals(act)) {
-                                annotationType = ACT;
-                            } else if (annotationType_str.equals(org)) {
-                                annotationType = ORG;
-                            } else {
-                                invalidTypes.add(annotationType_str);
-                                invalidAnnotationCount++;
-                                continue;
-                            }
-                                
-                            if (annotationType == DAT) {
-                                String timexValue = obj.getString(mongoIdentAnnotation_normalized);
-                                Matcher m = pattern.matcher(timexValue);
-                                if (m.matches()) {
-                                    count_ValidAnnotationsByType[DAT]++;
-                                                
-                                    // mark portion of the sentence that is covered by the date for deletion
-                                    int begin = (Integer) obj.get(mongoIdentAnnotation_start);
-                                    int end = (Integer) obj.get(mongoIdentAnnotation_end);
-                                    for (int p=begin; p<end; p++) {
-                                        mask[p] = replaceableChar;
-                                    }
-                                                
-                                    // extract dates and make sure the completeness condition is satisfied
-                                    // i.e. for dates YYYY-MM-DD also include YYYY-MM and YYYY, ...
-                                    String date = "";
-                                    for (int i=1; i<=m.groupCount(); i++) {
-                                        if (m.group(i) != null) {
-                                            date += m.group(i);
-                                            int annId = hub.getAnnotationID(annotationType, date);
-
-                                            // add annotation to list for later edge creation
-                                            Annotation ann = new Annotation(date, annId, annotationType, sentence_id);
-                                            annotationsSentence.add(ann);
-                                        }
-                                    }
+                        if (annotationType == DAT) {
+                            String timexValue = obj.getString(mongoIdentAnnotation_normalized);
+                            Matcher m = pattern.matcher(timexValue);
+                            if (m.matches()) {
+                                count_ValidAnnotationsByType[DAT]++;
                                             
-                                    hasAnnotations = true;
-                                    annotationCounter++;
-                                }
-
-                            } else if (annotationType == LOC || annotationType == ACT || annotationType == ORG) {
-
+                                // mark portion of the sentence that is covered by the date for deletion
                                 int begin = (Integer) obj.get(mongoIdentAnnotation_start);
                                 int end = (Integer) obj.get(mongoIdentAnnotation_end);
-
-                                // get covered text and clean it up
-                                String value = (String) obj.get(mongoIdentAnnotation_coveredText);
-                                value = replaceAndTrimNames(value).toLowerCase();
-                                
-                                // INSTEAD, ONLY FOR WIKIDATA ENTITIES: (do not perform any changes to the value)
-                                //String value = "Q" + obj.get(mongoIdentAnnotation_normalized).toString();
-                                    
-                                // get an id
-                                int annId = hub.getAnnotationID(annotationType, value);
-    
-                                // add annotation to list for later edge creation
-                                Annotation ann = new Annotation(value, annId, annotationType, sentence_id);
-                                annotationsSentence.add(ann);
-
-                                // WORKAROUND / HEURISTIC
-                                // In some cases, there is an overlap between NEs and sentences. If an NE is assigned to
-                                // a sentence but starts before the sentence, pretend that it starts at the first character
-                                // of the sentence for the purpose of creating the bitmask
-                                if (begin < 0) {
-                                    begin = 0;
-                                    negativeOffsetCount++;                                    
-                                }
-                                
-                                // mark portion of the sentence that is covered for deletion
                                 for (int p=begin; p<end; p++) {
                                     mask[p] = replaceableChar;
                                 }
-                                    
+                                            
+                                // extract dates and make sure the completeness condition is satisfied
+                                // i.e. for dates YYYY-MM-DD also include YYYY-MM and YYYY, ...
+                                String date = "";
+                                for (int i=1; i<=m.groupCount(); i++) {
+                                    if (m.group(i) != null) {
+                                        date += m.group(i);
+
+                                        // add annotation to list for later edge creation (the ID is resolved later)
+                                        annotations.add(date, annotationType, sentence_id);
+                                    }
+                                }
+                                        
                                 hasAnnotations = true;
                                 annotationCounter++;
-                                count_ValidAnnotationsByType[annotationType]++;
-
                             }
-                        }
+
+                        } else if (annotationType == LOC || annotationType == ACT || annotationType == ORG) {
+
+                            int begin = (Integer) obj.get(mongoIdentAnnotation_start);
+                            int end = (Integer) obj.get(mongoIdentAnnotation_end);
+
+                            // get covered text and clean it up
+                            String value = (String) obj.get(mongoIdentAnnotation_coveredText);
+                            value = replaceAndTrimNames(value).toLowerCase();
                             
-                        // add this sentence and the corresponding page to the graph if it had valid annotations
-                        if (hasAnnotations) {
+                            // INSTEAD, ONLY FOR WIKIDATA ENTITIES: (do not perform any changes to the value)
+                            //String value = "Q" + obj.get(mongoIdentAnnotation_normalized).toString();
                                 
-                            // add sentence to the map
-                            int sentenceId = hub.getAnnotationID(SEN, sentence_mongoid_str);
-                            count_ValidAnnotationsByType[SEN]++;
-                                
-                            // add page / document to the map
-                            int pageId = hub.getAnnotationID(PAG, pageId_str);
-                            count_ValidAnnotationsByType[PAG]++;
+                            // add annotation to list for later edge creation (the ID is resolved later)
+                            annotations.add(value, annotationType, sentence_id);
 
-                            // remove marked parts of the sentence and turn the rest into Terms
-                            String content = new String(mask);
-                            content = content.replaceAll(replaceableString, "");    // remove annotations that were marked for deletion
-                                
-                            String[] wordsBag = content.split(" ");
-                            for (String s : wordsBag) {
-                                s = replaceAndTrimTerms(s).toLowerCase();
-                                    
-                                if (!stopwords.contains(s)) {
-                                    stemmer.setCurrent(s);
-                                    stemmer.stem();
-                                    s = stemmer.getCurrent();
-                                        
-                                    if (s.length() >= minWordLength) {
-                                        int annId = hub.getAnnotationID(TER, s);
-                                        Annotation ann = new Annotation(s, annId, TER, sentence_id);
-                                        annotationsTerms.add(ann);
-                                    }
-                                }
+                            // WORKAROUND / HEURISTIC
+                            // In some cases, there is an overlap between NEs and sentences. If an NE is assigned to
+                            // a sentence but starts before the sentence, pretend that it starts at the first character
+                            // of the sentence for the purpose of creating the bitmask
+                            if (begin < 0) {
+                                begin = 0;
+                                negativeOffsetCount++;                                    
                             }
-                                
-                            // turn list of annotations into edges by pairwise comparison
-                            // add edge between sentence and page
-                            edges.add(PAG + sepChar + SEN + sepChar + pageId + sepChar + sentenceId + sepChar + 0 + "\n");
-                            count_unaggregatedEdges++;
-                                
-                            for (int i=0; i<annotationsSentence.size(); i++) {
-                                Annotation an = annotationsSentence.get(i);
-                                    
-                                // NOTE connecting entities to the sentence is enough (sentences are connected to pages)
-                                // add edge between annotation and page
-                                // ew.append(an.type + sepChar + PAG + sepChar + an.id + sepChar + pageId + sepChar + 0 + "\n");
-                                // count_unaggregatedEdges++;
-                                
-                                // add edge between annotation and sentence
-                                edges.add(an.type + sepChar + SEN + sepChar + an.id + sepChar + sentenceId + sepChar + 0 + "\n");
-                                count_unaggregatedEdges++;
-                                    
-                                annotationsPage.add(an);
+                            
+                            // mark portion of the sentence that is covered for deletion
+                            for (int p=begin; p<end; p++) {
+                                mask[p] = replaceableChar;
                             }
                                 
-                            for (int i=0; i<annotationsTerms.size(); i++) {
-                                Annotation t = annotationsTerms.get(i);
-                                    
-                                // NOTE connecting terms to the sentence is enough (sentences are connected to pages)
-                                // add edge between term and page
-                                // ew.append(t.type + sepChar + PAG + sepChar + t.id + sepChar + pageId + sepChar + 0 + "\n");
-                                // count_unaggregatedEdges++;
-                                    
-                                // add edge between term and sentence
-                                edges.add(t.type + sepChar + SEN + sepChar + t.id + sepChar + sentenceId + sepChar + 0 + "\n");
-                                count_unaggregatedEdges++;
+                            hasAnnotations = true;
+                            annotationCounter++;
+                            count_ValidAnnotationsByType[annotationType]++;
+
+                        }
+                    }
+                        
+                    // add this sentence and the corresponding page to the graph if it had valid annotations
+                    if (hasAnnotations) {
+                            
+                        // add sentence to the map
+                        int sentence = annotations.add(sentence_mongoid_str, SEN, sentence_id);
+                        count_ValidAnnotationsByType[SEN]++;
+                            
+                        // add page / document to the map
+                        count_ValidAnnotationsByType[PAG]++;
+
+                        // remove marked parts of the sentence and turn the rest into Terms
+                        String content = removeMarkedCharacters(mask);    // remove annotations that were marked for deletion
+                            
+                        String[] wordsBag = content.split(" ");
+                        for (String s : wordsBag) {
+                            s = replaceAndTrimTerms(s).toLowerCase();
+                                
+                            if (!stopwords.contains(s)) {
+                                stemmer.setCurrent(s);
+                                stemmer.stem();
+                                s = stemmer.getCurrent();
                                     
-                                // add pairwise edges between terms and annotations in the same sentence (but only in one direction) 
-                                for (int j=0; j<annotationsSentence.size(); j++) {
-                                    Annotation an = annotationsSentence.get(j);
-                                    edges.add(an.type + sepChar + t.type + sepChar + an.id + sepChar + t.id + sepChar + 0 + "\n");
-                                    count_unaggregatedEdges++;
+                                if (s.length() >= minWordLength) {
+                                    annotations.add(s, TER, sentence_id);
                                 }
-                                    
                             }
-                        }                        
-                    }
-                    annotationCursor.close();
+                        }
+                        sentenceRanges.add(firstAnnotation);
+                        sentenceRanges.add(sentence);
+                        sentenceRanges.add(annotations.size());
+                    }                        
+                }
+                
+            } catch (Exception e) {
+                e.printStackTrace();
+                failedCount++;
+                annotations.truncate(firstAnnotation);
+            }
+        }
+        
+        if (sentenceRanges.isEmpty()) {
+            return;
+        }
+        
+        // get the IDs of all annotations on the page at once
+        try {
+            resolveIDs();
+        } catch (Exception e) {
+            e.printStackTrace();
+            failedCount++;
+            return;
+        }
+        int pageId = annotations.id(pageAnnotation);
+        int nPageAnnotations = 0;
+        
+        for (int r=0; r<sentenceRanges.size(); r+=3) {
+            int firstAnnotation = sentenceRanges.getQuick(r);
+            int sentence = sentenceRanges.getQuick(r + 1);
+            int endOfTerms = sentenceRanges.getQuick(r + 2);
+            int sentenceId = annotations.id(sentence);
+                            
+            // turn list of annotations into edges by pairwise comparison
+            // add edge between sentence and page
+            addEdge(edges, PAG, SEN, pageId, sentenceId, 0);
+            count_unaggregatedEdges++;
+                
+            for (int an=firstAnnotation; an<sentence; an++) {
                     
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    failedCount++;
+                // NOTE connecting entities to the sentence is enough (sentences are connected to pages)
+                // add edge between annotation and page
+                // ew.append(an.type + sepChar + PAG + sepChar + an.id + sepChar + pageId + sepChar + 0 + "\n");
+                // count_unaggregatedEdges++;
+                
+                // add edge between annotation and sentence
+                addEdge(edges, annotations.type(an), SEN, annotations.id(an), sentenceId, 0);
+                count_unaggregatedEdges++;
+                    
+                if (nPageAnnotations == pageOrder.length) {
+                    pageOrder = Arrays.copyOf(pageOrder, 2 * pageOrder.length);
                 }
+                pageOrder[nPageAnnotations++] = ((long) annotations.sentenceID(an) << 32) | an;
             }
-            
-            // sort all annotations on a page by sentence ID for easier pairwise comparison
-            // in the following, it is assumed that annotations with smaller sentence ID come first
-            Collections.sort(annotationsPage);
                 
-            // turn list of annotations on the entire page into edges by pairwise comparison
-            for (int i=0; i<annotationsPage.size(); i++) {
-                Annotation an1 = annotationsPage.get(i);
+            for (int t=sentence+1; t<endOfTerms; t++) {
+                    
+                // NOTE connecting terms to the sentence is enough (sentences are connected to pages)
+                // add edge between term and page
+                // ew.append(t.type + sepChar + PAG + sepChar + t.id + sepChar + pageId + sepChar + 0 + "\n");
+                // count_unaggregatedEdges++;
+                    
+                // add edge between term and sentence
+                int termId = annotations.id(t);
+                addEdge(edges, TER, SEN, termId, sentenceId, 0);
+                count_unaggregatedEdges++;
+                    
+                // add pairwise edges between terms and annotations in the same sentence (but only in one direction) 
+                for (int an=firstAnnotation; an<sentence; an++) {
+                    addEdge(edges, annotations.type(an), TER, annotations.id(an), termId, 0);
+                    count_unaggregatedEdges++;
+                }
                     
-                // add pairwise edges between all annotations (but only in one direction)
-                // ORDER: lower entity type first (if this is equal, lower ID first)
-                for (int j=i+1; j<annotationsPage.size(); j++) {
-                    Annotation an2 = annotationsPage.get(j);
+            }
+        }
+        
+        // sort all annotations on a page by sentence ID for easier pairwise comparison
+        // in the following, it is assumed that annotations with smaller sentence ID come first.
+        // The annotations are sorted as sentence ID and index in a single long (in the order in which
+        // they were found if the sentence IDs are equal), which is only necessary if the sentences of
+        // the page are not in order
+        if (!isSorted(pageOrder, nPageAnnotations)) {
+            Arrays.sort(pageOrder, 0, nPageAnnotations);
+        }
+            
+        // turn list of annotations on the entire page into edges by pairwise comparison
+        for (int i=0; i<nPageAnnotations; i++) {
+            int an1 = (int) pageOrder[i];
+            char type1 = annotations.type(an1);
+            int id1 = annotations.id(an1);
+            int sentence1 = annotations.sentenceID(an1);
+                
+            // add pairwise edges between all annotations (but only in one direction)
+            // ORDER: lower entity type first (if this is equal, lower ID first)
+            for (int j=i+1; j<nPageAnnotations; j++) {
+                int an2 = (int) pageOrder[j];
+                char type2 = annotations.type(an2);
+                int id2 = annotations.id(an2);
+                
+                // compute the distance in sentences between the two annotations. Since annotations
+                // are ordered non-decreasingly by sentenceID, if this distance is larger than the
+                // maximum distance, we can skip the rest of the list.
+                int weight = annotations.sentenceID(an2) - sentence1;
+                if (weight > maxDistanceInSentences) {
+                    break;
+                }
                     
-                    // compute the distance in sentences between the two annotations. Since annotations
-                    // are ordered non-decreasingly by sentenceID, if this distance is larger than the
-                    // maximum distance, we can skip the rest of the list.
-                    int weight = an2.sentenceID - an1.sentenceID;
-                    if (weight > maxDistanceInSentences) {
-                        break;
+                if (type1 != type2) { // connections between entity types
+                    if (type1 < type2) {
+                        addEdge(edges, type1, type2, id1, id2, weight);
+                        count_unaggregatedEdges++;
+                    } else {
+                        addEdge(edges, type2, type1, id2, id1, weight);
+                        count_unaggregatedEdges++;
                     }
-                        
-                    if (an1.type != an2.type) { // connections between entity types
-                        if (an1.type < an2.type) {
-                            edges.add(an1.type + sepChar + an2.type + sepChar + an1.id + sepChar + an2.id + sepChar + weight + "\n");
-                            count_unaggregatedEdges++;
-                        } else {
-                            edges.add(an2.type + sepChar + an1.type + sepChar + an2.id + sepChar + an1.id + sepChar + weight + "\n");
-                            count_unaggregatedEdges++;
-                        }
-                    } else if (an1.type == LOC || an1.type == ACT || an1.type == ORG) { // connections within entity types
-                        if (an1.id < an2.id) {
-                            edges.add(an1.type + sepChar + an2.type + sepChar + an1.id + sepChar + an2.id + sepChar + weight + "\n");
-                            count_unaggregatedEdges++;
-                        } else if (an1.id > an2.id) {
-                            edges.add(an2.type + sepChar + an1.type + sepChar + an2.id + sepChar + an1.id + sepChar + weight + "\n");
-                            count_unaggregatedEdges++;
-                        }
-                        // the case where an1.id == an2.id is ignored since we do not want self loops in the network
+                } else if (type1 == LOC || type1 == ACT || type1 == ORG) { // connections within entity types
+                    if (id1 < id2) {
+                        addEdge(edges, type1, type2, id1, id2, weight);
+                        count_unaggregatedEdges++;
+                    } else if (id1 > id2) {
+                        addEdge(edges, type2, type1, id2, id1, weight);
+                        count_unaggregatedEdges++;
                     }
+                    // the case where an1.id == an2.id is ignored since we do not want self loops in the network
                 }
             }
-            sentenceCursor.close();
-            try {
-                hub.writeEdges(edges);
-            } catch (Exception e) {
-                e.printStackTrace();
+        }
+    }
+    
+    // add an unaggregated edge in the binary record format (see EdgeRecord). If the edges are partitioned by
+    // source type, the edge is also added in the reverse direction.
+    private static void addEdge(TLongArrayList edges, char sourceType, char targetType, int sourceId, int targetId, int distance) {
+        edges.add(EdgeRecord.high(sourceType, sourceId));
+        edges.add(EdgeRecord.low(targetType, targetId, distance));
+        if (partitionEdgesByType) {
+            edges.add(EdgeRecord.high(targetType, targetId));
+            edges.add(EdgeRecord.low(sourceType, sourceId, distance));
+        }
+    }
+    
+    private static boolean isSorted(long[] a, int n) {
+        for (int i=1; i<n; i++) {
+            if (a[i - 1] > a[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // the text of a sentence without the characters that were marked for deletion (the mask is overwritten)
+    private static String removeMarkedCharacters(char[] mask) {
+        int n = 0;
+        for (int i=0; i<mask.length; i++) {
+            if (mask[i] != replaceableChar) {
+                mask[n++] = mask[i];
+            }
+        }
+        return new String(mask, 0, n);
+    }
+    
+    /* Assign IDs to all annotations of the page. IDs are taken from the near-cache if possible.
+     * The remaining values are collected (without duplicates) and resolved with a single call to the hub per
+     * node type. Since IDs never change once they are assigned, cached IDs are always valid.
+     * The page and its sentences are new nodes and get a range of consecutive IDs without any look-up.
+     */
+    private void resolveIDs() throws Exception {
+        try {
+            resolvePendingIDs();
+        } finally {
+            for (int i=0; i<nANNOTATIONS; i++) {
+                missIndex[i].clear();
+                missValues[i].clear();
+            }
+        }
+    }
+    
+    private void resolvePendingIDs() throws Exception {
+        for (int an=0; an<annotations.size(); an++) {
+            char type = annotations.type(an);
+            String value = annotations.value(an);
+            int id = (type < PAG) ? nearCache[type].get(value) : -1;
+            if (id >= 0) {
+                annotations.setID(an, id);
+                nearCacheHits++;
+            } else {
+                if (type < PAG) {
+                    nearCacheMisses++;
+                }
+                if (missIndex[type].putIfAbsent(value, missValues[type].size()) < 0) {
+                    missValues[type].add(value);
+                }
             }
         }
         
-        // update the total statistics for summing up over all threads
+        int[][] ids = new int[nANNOTATIONS][];
+        for (char type=0; type<nANNOTATIONS; type++) {
+            ArrayList<String> values = missValues[type];
+            if (values.isEmpty()) continue;
+            if (type >= PAG) {
+                int first = hub.getSequentialIDs(type, values);
+                ids[type] = new int[values.size()];
+                for (int i=0; i<values.size(); i++) {
+                    ids[type][i] = first + i;
+                }
+            } else {
+                ids[type] = hub.getAnnotationIDs(type, values);
+                sharedLookups += values.size();
+                resolveCalls++;
+                
+                // the cache is emptied when it is full, so that it adapts to the values that are currently frequent
+                TObjectIntHashMap<String> cache = nearCache[type];
+                if (cache.size() + values.size() > nearCacheSize) {
+                    cache.clear();
+                }
+                for (int i=0; i<values.size() && cache.size() < nearCacheSize; i++) {
+                    cache.put(values.get(i), ids[type][i]);
+                }
+            }
+        }
+        
+        for (int an=0; an<annotations.size(); an++) {
+            if (annotations.id(an) < 0) {
+                char type = annotations.type(an);
+                annotations.setID(an, ids[type][missIndex[type].get(annotations.value(an))]);
+            }
+        }
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static TObjectIntHashMap<String>[] newMapArray() {
+        TObjectIntHashMap<String>[] maps = new TObjectIntHashMap[nANNOTATIONS];
+        for (int i=0; i<nANNOTATIONS; i++) {
+            maps[i] = new TObjectIntHashMap<String>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
+        }
+        return maps;
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayList<String>[] newListArray() {
+        ArrayList<String>[] lists = new ArrayList[nANNOTATIONS];
+        for (int i=0; i<nANNOTATIONS; i++) {
+            lists[i] = new ArrayList<String>();
+        }
+        return lists;
+    }
+    
+    // update the total statistics for summing up over all threads
+    public void finish() {
         hub.updateStatistics(annotationCounter, count_unaggregatedEdges, failedCount, invalidAnnotationCount, invalidTypes,
                              count_ValidAnnotationsByType, negativeOffsetCount);
+        hub.updatePageStatistics(processedSentences, processedAnnotations);
+        hub.updateCacheStatistics(nearCacheHits, nearCacheMisses, sharedLookups, resolveCalls);
         
         hub.latch.countDown();
-        
     }
     
-    
 }
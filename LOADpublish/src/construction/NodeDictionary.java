@@ -0,0 +1,286 @@
+package construction;
+
+import static settings.SystemSettings.*;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// trove library imports
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Dictionary that assigns dense, consecutive IDs to the values (node names) of one node type and can be used
+ * by many threads at the same time. Values are distributed over lock stripes by their hash. Each stripe is an
+ * open addressing hash table that is read without locking. Only the insertion of a new value locks its stripe,
+ * so that values that are already known (the common case) never block. IDs are drawn from an atomic counter.
+ * Entries are never removed.
+ * How the values are stored is up to the implementation of the stripes: ConcurrentDictionary keeps them as
+ * Java Strings, OffHeapDictionary as UTF-8 bytes outside of the Java heap.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public abstract class NodeDictionary {
+
+    private Stripe[] stripes;
+    private int stripeBits;
+    private AtomicInteger nextID;
+
+    // new values get the IDs firstID, firstID+1, ... (nStripes is rounded up to a power of two)
+    protected NodeDictionary(int firstID, int nStripes) {
+        stripeBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, nStripes) - 1);
+        stripes = new Stripe[1 << stripeBits];
+        for (int i=0; i<stripes.length; i++) {
+            stripes[i] = newStripe();
+        }
+        nextID = new AtomicInteger(firstID);
+    }
+
+    // a dictionary of the kind that is selected in the settings (see offHeapDictionaries)
+    public static NodeDictionary create() {
+        if (offHeapDictionaries) {
+            return new OffHeapDictionary(0, dictionaryStripes);
+        } else {
+            return new ConcurrentDictionary(0, dictionaryStripes);
+        }
+    }
+
+    protected abstract Stripe newStripe();
+
+    // the representation of a value that is compared to the stored keys (computed once per look-up)
+    protected abstract Object keyOf(String value);
+
+    // true if the values are stored outside of the Java heap
+    protected abstract boolean isOffHeap();
+
+    // returns the ID of the value and assigns the next free ID if the value is not yet contained
+    public int getID(String value) {
+        int hash = spread(value.hashCode());
+        Stripe stripe = stripes[hash & (stripes.length - 1)];
+        int slotHash = Integer.rotateRight(hash, stripeBits);
+        Object key = keyOf(value);
+
+        int id = stripe.get(key, slotHash);
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (stripe) {
+            // the value may have been added since the lock-free look-up
+            id = stripe.get(key, slotHash);
+            if (id < 0) {
+                id = nextID.getAndIncrement();
+                stripe.insert(key, slotHash, id);
+            }
+        }
+        return id;
+    }
+
+    /* Returns the IDs of several values at once. Known values are looked up without locking, the new values
+     * are grouped by stripe, so that each stripe is locked at most once.
+     */
+    public int[] getIDs(ArrayList<String> values) {
+        int[] ids = new int[values.size()];
+        int[] slotHashes = new int[values.size()];
+        Object[] keys = new Object[values.size()];
+        TLongArrayList misses = new TLongArrayList();
+        for (int i=0; i<values.size(); i++) {
+            int hash = spread(values.get(i).hashCode());
+            int stripe = hash & (stripes.length - 1);
+            slotHashes[i] = Integer.rotateRight(hash, stripeBits);
+            keys[i] = keyOf(values.get(i));
+            ids[i] = stripes[stripe].get(keys[i], slotHashes[i]);
+            if (ids[i] < 0) {
+                misses.add(((long) stripe << 32) | i);
+            }
+        }
+
+        misses.sort();
+        int pos = 0;
+        while (pos < misses.size()) {
+            Stripe stripe = stripes[(int) (misses.get(pos) >>> 32)];
+            synchronized (stripe) {
+                do {
+                    int i = (int) misses.get(pos);
+                    ids[i] = stripe.get(keys[i], slotHashes[i]);
+                    if (ids[i] < 0) {
+                        ids[i] = nextID.getAndIncrement();
+                        stripe.insert(keys[i], slotHashes[i], ids[i]);
+                    }
+                    pos++;
+                } while (pos < misses.size() && stripes[(int) (misses.get(pos) >>> 32)] == stripe);
+            }
+        }
+        return ids;
+    }
+
+    // returns the ID of the value or -1 if it is not contained
+    public int get(String value) {
+        int hash = spread(value.hashCode());
+        return stripes[hash & (stripes.length - 1)].get(keyOf(value), Integer.rotateRight(hash, stripeBits));
+    }
+
+    // add a value with a known ID (e.g. when a dictionary is loaded from file)
+    public void put(String value, int id) {
+        int hash = spread(value.hashCode());
+        Stripe stripe = stripes[hash & (stripes.length - 1)];
+        int slotHash = Integer.rotateRight(hash, stripeBits);
+        Object key = keyOf(value);
+        synchronized (stripe) {
+            if (stripe.get(key, slotHash) < 0) {
+                stripe.insert(key, slotHash, id);
+            }
+        }
+    }
+
+    // the ID that is assigned to the next new value
+    public int nextID() {
+        return nextID.get();
+    }
+
+    public void setNextID(int id) {
+        nextID.set(id);
+    }
+
+    // number of values in the dictionary
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    // memory that is used for the values (node names)
+    public long labelBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.labelBytes();
+        }
+        return bytes;
+    }
+
+    // memory that is used for the hash tables (hashes, IDs and references to the values)
+    public long indexBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.indexBytes();
+        }
+        return bytes;
+    }
+
+    // one line summary of the memory usage
+    public String memoryReport() {
+        DecimalFormat mb = new DecimalFormat("#,##0.0");
+        return size() + " values, labels " + mb.format(labelBytes() / 1048576.0) + " MB"
+               + (isOffHeap() ? " (off-heap)" : " (heap, estimated)") + ", index " + mb.format(indexBytes() / 1048576.0) + " MB";
+    }
+
+    /* Iterates over all values and their IDs. Values must not be added during the iteration, since a stripe
+     * that grows is rehashed.
+     */
+    public TObjectIntIterator<String> iterator() {
+        return new DictionaryIterator();
+    }
+
+    // the bits of String.hashCode() are mixed, since both the stripe and the slot are derived from them
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /* One open addressing hash table. get() and the read methods are called without locking, insert() only
+     * while holding the lock of the stripe.
+     */
+    protected abstract static class Stripe {
+        protected volatile int size = 0;
+
+        // ID of the key or -1 if it is not contained
+        protected abstract int get(Object key, int slotHash);
+
+        protected abstract void insert(Object key, int slotHash, int id);
+
+        protected abstract int capacity();
+
+        // the value that is stored in the slot or null if the slot is empty
+        protected abstract String valueAt(int slot);
+
+        protected abstract int idAt(int slot);
+
+        protected abstract long labelBytes();
+
+        protected abstract long indexBytes();
+    }
+
+    private class DictionaryIterator implements TObjectIntIterator<String> {
+        private int stripe = 0;
+        private int slot = -1;
+        private String next = null;
+        private String key;
+        private int value;
+
+        // finds the next entry (or the end) without advancing
+        private boolean findNext() {
+            while (next == null) {
+                Stripe s = stripes[stripe];
+                for (int i = slot + 1; i < s.capacity(); i++) {
+                    next = s.valueAt(i);
+                    if (next != null) {
+                        slot = i - 1;
+                        return true;
+                    }
+                }
+                if (stripe + 1 >= stripes.length) {
+                    slot = s.capacity();
+                    return false;
+                }
+                stripe++;
+                slot = -1;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return findNext();
+        }
+
+        @Override
+        public void advance() {
+            if (!findNext()) {
+                throw new NoSuchElementException();
+            }
+            slot++;
+            key = next;
+            value = stripes[stripe].idAt(slot);
+            next = null;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public int value() {
+            return value;
+        }
+
+        @Override
+        public int setValue(int val) {
+            throw new UnsupportedOperationException("IDs of a dictionary cannot be changed");
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Values cannot be removed from a dictionary");
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package construction;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Node dictionary that stores the values as UTF-8 bytes outside of the Java heap, so that hundreds of millions
+ * of node names do not have to be traced by the garbage collector. Each stripe appends its values to an arena
+ * of direct byte buffers (chunks that double in size up to maxChunkSize). The hash table of a stripe only holds
+ * primitive arrays: the offset of each value in the arena, its hash and its ID.
+ * Values are compared by their UTF-8 bytes. Offsets are published only after the bytes, the hash and the ID
+ * have been written, so that the tables can be read without locking.
+ * A value is stored as its length (one byte if below 128, otherwise four bytes with the highest bit set),
+ * followed by its bytes. The offset of a value is the chunk index in the upper and the position in the chunk
+ * in the lower 32 bits.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class OffHeapDictionary extends NodeDictionary {
+
+    private static final int initialCapacity = 16;
+    private static final int initialChunkSize = 1 << 12;
+    private static final int maxChunkSize = 1 << 24;
+
+    // new values get the IDs firstID, firstID+1, ... (nStripes is rounded up to a power of two)
+    public OffHeapDictionary(int firstID, int nStripes) {
+        super(firstID, nStripes);
+    }
+
+    @Override
+    protected Stripe newStripe() {
+        return new ArenaStripe();
+    }
+
+    @Override
+    protected Object keyOf(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected boolean isOffHeap() {
+        return true;
+    }
+
+    private static class ArenaStripe extends Stripe {
+        volatile Table table = new Table(initialCapacity);
+        // chunks of the arena. The array is replaced (not modified) when a chunk is added.
+        volatile ByteBuffer[] chunks = new ByteBuffer[0];
+        // write position in the last chunk (guarded by the lock of the stripe)
+        int position = 0;
+        long allocatedBytes = 0;
+
+        // linear probing. The chunks are read after the offset, so that they contain the chunk of the value.
+        @Override
+        protected int get(Object key, int slotHash) {
+            Table t = table;
+            int mask = t.capacity() - 1;
+            for (int i = slotHash & mask; ; i = (i + 1) & mask) {
+                long offset = t.offsets.get(i);
+                if (offset == 0) {
+                    return -1;
+                } else if (t.hashes[i] == slotHash && OffHeapDictionary.equals(chunks, offset - 1, (byte[]) key)) {
+                    return t.ids[i];
+                }
+            }
+        }
+
+        @Override
+        protected void insert(Object key, int slotHash, int id) {
+            Table t = table;
+            if (2 * (size + 1) > t.capacity()) {
+                // keep the load factor below 1/2. The grown table is published once it is complete.
+                Table grown = new Table(2 * t.capacity());
+                for (int i=0; i<t.capacity(); i++) {
+                    long offset = t.offsets.get(i);
+                    if (offset != 0) {
+                        grown.add(offset - 1, t.hashes[i], t.ids[i]);
+                    }
+                }
+                table = grown;
+                t = grown;
+            }
+            t.add(append((byte[]) key), slotHash, id);
+            size++;
+        }
+
+        // copy the bytes of a value into the arena and return its offset
+        private long append(byte[] value) {
+            int length = value.length + ((value.length < 0x80) ? 1 : 4);
+            ByteBuffer[] c = chunks;
+            if (c.length == 0 || position + length > c[c.length - 1].capacity()) {
+                int chunkSize = (c.length == 0) ? initialChunkSize : Math.min(2 * c[c.length - 1].capacity(), maxChunkSize);
+                // the new chunk is published before any offset into it
+                c = Arrays.copyOf(c, c.length + 1);
+                c[c.length - 1] = ByteBuffer.allocateDirect(Math.max(chunkSize, length));
+                allocatedBytes += c[c.length - 1].capacity();
+                chunks = c;
+                position = 0;
+            }
+            ByteBuffer chunk = c[c.length - 1];
+            long offset = ((long) (c.length - 1) << 32) | position;
+            if (value.length < 0x80) {
+                chunk.put(position, (byte) value.length);
+            } else {
+                chunk.putInt(position, value.length | 0x80000000);
+            }
+            int start = position + length - value.length;
+            for (int i=0; i<value.length; i++) {
+                chunk.put(start + i, value[i]);
+            }
+            position += length;
+            return offset;
+        }
+
+        @Override
+        protected int capacity() {
+            return table.capacity();
+        }
+
+        @Override
+        protected String valueAt(int slot) {
+            long offset = table.offsets.get(slot);
+            if (offset == 0) {
+                return null;
+            }
+            return new String(read(chunks, offset - 1), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected int idAt(int slot) {
+            return table.ids[slot];
+        }
+
+        @Override
+        protected long labelBytes() {
+            return allocatedBytes;
+        }
+
+        // offset, hash and ID per slot
+        @Override
+        protected long indexBytes() {
+            return 16L * table.capacity();
+        }
+    }
+
+    // the bytes of the value at the given offset
+    private static byte[] read(ByteBuffer[] chunks, long offset) {
+        ByteBuffer chunk = chunks[(int) (offset >>> 32)];
+        int pos = (int) offset;
+        int length = chunk.get(pos);
+        if (length < 0) {
+            length = chunk.getInt(pos) & 0x7fffffff;
+            pos += 4;
+        } else {
+            pos += 1;
+        }
+        byte[] value = new byte[length];
+        for (int i=0; i<length; i++) {
+            value[i] = chunk.get(pos + i);
+        }
+        return value;
+    }
+
+    // compares the value at the given offset to the bytes of a key
+    private static boolean equals(ByteBuffer[] chunks, long offset, byte[] key) {
+        ByteBuffer chunk = chunks[(int) (offset >>> 32)];
+        int pos = (int) offset;
+        int length = chunk.get(pos);
+        if (length < 0) {
+            length = chunk.getInt(pos) & 0x7fffffff;
+            pos += 4;
+        } else {
+            pos += 1;
+        }
+        if (length != key.length) {
+            return false;
+        }
+        for (int i=0; i<length; i++) {
+            if (chunk.get(pos + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Table {
+        // offset of the value + 1 (0 marks an empty slot)
+        final AtomicLongArray offsets;
+        final int[] hashes;
+        final int[] ids;
+
+        Table(int capacity) {
+            offsets = new AtomicLongArray(capacity);
+            hashes = new int[capacity];
+            ids = new int[capacity];
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        // hash and ID are written before the offset, so that a reader that finds the offset also sees them
+        void add(long offset, int slotHash, int id) {
+            int mask = ids.length - 1;
+            int i = slotHash & mask;
+            while (offsets.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            hashes[i] = slotHash;
+            ids[i] = id;
+            offsets.set(i, offset + 1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package construction;
+
+import static settings.SystemSettings.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.bson.Document;
+
+/**
+ * A single page (document) with its sentences and annotations, as delivered by a DocumentSource.
+ * Annotations are grouped by the sentence they belong to.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class PageBundle {
+    public int pageId;
+    public ArrayList<Document> sentences;
+    public HashMap<Integer, ArrayList<Document>> annotationsBySentence;
+    public int nAnnotations;
+
+    private static final ArrayList<Document> noAnnotations = new ArrayList<Document>(0);
+
+    public PageBundle(int pageId) {
+        this.pageId = pageId;
+        sentences = new ArrayList<Document>();
+        annotationsBySentence = new HashMap<Integer, ArrayList<Document>>();
+        nAnnotations = 0;
+    }
+
+    public void addSentence(Document sentence) {
+        sentences.add(sentence);
+    }
+
+    // add an annotation to the list of the sentence it belongs to
+    public void addAnnotation(Document annotation) {
+        Integer sentenceId = annotation.getInteger(mongoIdentAnnotation_sentenceId);
+        ArrayList<Document> list = annotationsBySentence.get(sentenceId);
+        if (list == null) {
+            list = new ArrayList<Document>();
+            annotationsBySentence.put(sentenceId, list);
+        }
+        list.add(annotation);
+        nAnnotations++;
+    }
+
+    // returns the annotations of a sentence (or an empty list if there are none)
+    public ArrayList<Document> getAnnotations(int sentenceId) {
+        ArrayList<Document> list = annotationsBySentence.get(sentenceId);
+        return (list != null) ? list : noAnnotations;
+    }
+}
@@ -0,0 +1,141 @@
+package construction;
+
+import static settings.LOADmodelSettings.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+// trove library imports
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * List of the pages that are used for LOAD graph construction, together with the number of annotations
+ * and sentences of each page (0 if unknown). The counts are used to estimate the processing cost of a page.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class PageList {
+    public int[] pageIDs;
+    public int[] annotationCounts;
+    public int[] sentenceCounts;
+
+    public PageList(int[] pageIDs, int[] annotationCounts, int[] sentenceCounts) {
+        this.pageIDs = pageIDs;
+        this.annotationCounts = annotationCounts;
+        this.sentenceCounts = sentenceCounts;
+    }
+
+    public PageList(int[] pageIDs) {
+        this(pageIDs, new int[pageIDs.length], new int[pageIDs.length]);
+    }
+
+    public int size() {
+        return pageIDs.length;
+    }
+
+    // pages from index (inclusive) to index (exclusive)
+    public PageList subList(int from, int to) {
+        return new PageList(Arrays.copyOfRange(pageIDs, from, to), Arrays.copyOfRange(annotationCounts, from, to),
+                            Arrays.copyOfRange(sentenceCounts, from, to));
+    }
+
+    // pages that are not contained in the given set of page IDs (in the same order)
+    public PageList removeAll(TIntHashSet ids) {
+        TIntArrayList keep = new TIntArrayList();
+        for (int i=0; i<pageIDs.length; i++) {
+            if (!ids.contains(pageIDs[i])) {
+                keep.add(i);
+            }
+        }
+        int[] order = keep.toArray();
+        PageList result = new PageList(pageIDs, annotationCounts, sentenceCounts);
+        result.reorder(order);
+        return result;
+    }
+    
+    /* Estimated processing cost of the i-th page. Pairs of annotations are compared within a window of
+     * sentences, so the cost grows with the number of annotations times the annotation density.
+     * If the number of sentences is unknown, all annotations are assumed to be within the window.
+     */
+    public long estimateCost(int i) {
+        long annotations = annotationCounts[i];
+        long sentences = sentenceCounts[i];
+        long window = (sentences > 0) ? Math.min(sentences, 2 * maxDistanceInSentences + 1) : 1;
+        long density = (sentences > 0) ? Math.max(1, annotations * window / sentences) : annotations;
+        return 1 + sentences + annotations * density;
+    }
+
+    // prefix sums of the estimated costs (entry i is the cost of all pages before page i)
+    public long[] costPrefixSums() {
+        long[] prefix = new long[pageIDs.length + 1];
+        for (int i=0; i<pageIDs.length; i++) {
+            prefix[i+1] = prefix[i] + estimateCost(i);
+        }
+        return prefix;
+    }
+
+    // true if the counts are known for at least one page
+    public boolean hasCounts() {
+        for (int i=0; i<pageIDs.length; i++) {
+            if (annotationCounts[i] > 0 || sentenceCounts[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // deterministic shuffle of the pages (independent of the order in which the pages were found)
+    public void shuffle(int seed) {
+        reorder(sortedOrder(false));
+        TIntArrayList order = new TIntArrayList(pageIDs.length);
+        for (int i=0; i<pageIDs.length; i++) {
+            order.add(i);
+        }
+        order.shuffle(new Random(seed));
+        reorder(order.toArray());
+    }
+
+    // order pages by decreasing estimated cost (longest processing time first), ties by page ID
+    public void sortByCostDescending() {
+        reorder(sortedOrder(true));
+    }
+
+    private int[] sortedOrder(final boolean byCost) {
+        final long[] costs = new long[pageIDs.length];
+        Integer[] order = new Integer[pageIDs.length];
+        for (int i=0; i<pageIDs.length; i++) {
+            costs[i] = byCost ? estimateCost(i) : 0;
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int rv = Long.compare(costs[b], costs[a]);
+                return (rv != 0) ? rv : Integer.compare(pageIDs[a], pageIDs[b]);
+            }
+        });
+        int[] result = new int[order.length];
+        for (int i=0; i<order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private void reorder(int[] order) {
+        int[] ids = new int[order.length];
+        int[] annotations = new int[order.length];
+        int[] sentences = new int[order.length];
+        for (int i=0; i<order.length; i++) {
+            ids[i] = pageIDs[order[i]];
+            annotations[i] = annotationCounts[order[i]];
+            sentences[i] = sentenceCounts[order[i]];
+        }
+        pageIDs = ids;
+        annotationCounts = annotations;
+        sentenceCounts = sentences;
+    }
+}
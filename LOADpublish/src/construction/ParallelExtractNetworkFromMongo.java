@@ -2,38 +2,42 @@ package construction;
 
 import static settings.LOADmodelSettings.*;
 import static settings.SystemSettings.*;
+import externalsort.EdgeKey;
+import externalsort.EdgeRecord;
+import externalsort.EdgeRecordReader;
+import externalsort.EdgeRecordSort;
+import externalsort.EdgeReducer;
+import externalsort.EdgeRunBuffer;
+import externalsort.EdgeRunSet;
 import externalsort.ParallelDiskMergeSort;
+import externalsort.TemporaryFiles;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 
-// mongoDB imports
-import org.bson.Document;
-import com.mongodb.MongoClient;
-import com.mongodb.ServerAddress;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoCursor;
-import com.mongodb.client.MongoDatabase;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
 // trove library imports
 import gnu.trove.iterator.TObjectIntIterator;
 import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.map.hash.TObjectIntHashMap;
 import gnu.trove.set.hash.TIntHashSet;
 
 /**
@@ -47,9 +51,14 @@ import gnu.trove.set.hash.TIntHashSet;
  */
 public class ParallelExtractNetworkFromMongo {
     
-    // hash maps for assigning IDs to nodes (consecutive for each type of entity)
-    private ArrayList<TObjectIntHashMap<String>> valueToIdMaps;
-    private int[] currentIDs;
+    // hash maps for assigning IDs to nodes (consecutive for each type of entity). Pages and sentences occur
+    // only once and get their IDs without a dictionary (the entries of these types are null).
+    private ArrayList<NodeDictionary> valueToIdMaps;
+    private SequentialNodeSet[] sequentialNodes = new SequentialNodeSet[nANNOTATIONS];
+    
+    // sorted runs of unaggregated edges, written by the workers (and the same runs with canonical IDs)
+    private EdgeRunSet edgeRuns;
+    private EdgeRunSet remappedRuns;
     
     // Define output variables and  counters
     private int count_Articles;
@@ -58,9 +67,33 @@ public class ParallelExtractNetworkFromMongo {
     private int count_ValidAnnotations;
     private int[] count_ValidAnnotationsByType = new int[nANNOTATIONS];
     private long count_unaggregatedEdges = 0;
+    private int failedSentences = 0;
+    private int invalidAnnotationCount = 0;
+    private int negativeOffsetCount = 0;
+    private HashSet<String> invalidTypes = new HashSet<String>();
+    private long[] nearCacheStatistics = new long[4];
+    private long[] combinerStatistics = new long[2];
+    
+    // number of nodes of each type and number of aggregated edges with a source node of each type
     private static int[] setSizes = new int[nANNOTATIONS];
     private static long[] aggregatedEdgeCounts = new long[nANNOTATIONS];
     
+    // checkpointing of the construction progress (null if disabled)
+    private Checkpoint checkpoint;
+    private int pagesDone = 0;
+    private boolean extractionSucceeded = false;
+    
+    // number of nodes of the existing graph in an incremental update (0 when a new graph is built)
+    private int[] baseSizes = new int[nANNOTATIONS];
+    private boolean incremental = false;
+    private TIntHashSet existingPages;
+    private long existingUnaggregatedEdges = 0;
+    private static final String keyPagesDone = "pagesDone";
+    private static final String keyEdgeRuns = "edgeRuns";
+    private static final String keyRemappedRuns = "remappedRuns";
+    private static final String keyDictionarySizes = "dictionarySizes";
+    private static final String keyDictionaryLengths = "dictionaryLengths";
+    
     /* Define a comparator for edges in edges lists that are created as intermediary output. Sort by:
      *   1. source type
      *   2. source id
@@ -68,9 +101,9 @@ public class ParallelExtractNetworkFromMongo {
      *   4. target id
      * This order is necessary so that all edges from a given nodes (and node set) are
      * processed in the correct order in the aggregation and splitting step (which read
-     * edges line by line.
+     * edges line by line. Duplicate edges are ordered by weight.
      */
-    private static Comparator<String> edgecomparator = new Comparator<String>() {
+    public static Comparator<String> edgecomparator = new Comparator<String>() {
         @Override
         public int compare(String r1, String r2) {
             String[] s1 = r1.split(sepChar);
@@ -97,7 +130,14 @@ public class ParallelExtractNetworkFromMongo {
                     } else {
                         int targetId1 = Integer.parseInt(s1[3]);
                         int targetId2 = Integer.parseInt(s2[3]);
-                        return targetId1 - targetId2;
+                        rv = targetId1 - targetId2;
+                        if (rv != 0 || s1.length < 5 || s2.length < 5) {
+                            return rv;
+                        } else {
+                            // order duplicate edges by their weight, so that their weights are always
+                            // summed up in the same order when the edges are aggregated
+                            return s1[4].compareTo(s2[4]);
+                        }
                     }
                 }
             }
@@ -117,7 +157,12 @@ public class ParallelExtractNetworkFromMongo {
             }
         }
         
-        theDir = new File(tmpfolder);
+        setUpTemporaryFolder();
+    }
+    
+    // make sure that the folder for temporary files exists and is empty
+    public static void setUpTemporaryFolder() {
+        File theDir = new File(tmpfolder);
         if (!theDir.exists()) {
             theDir.mkdir();
         } else {
@@ -145,180 +190,267 @@ public class ParallelExtractNetworkFromMongo {
         return stopwords;
     }
     
-    // read the list of all page IDs from an input file that are used to build the network
-    public int[] readPageIDs() {
-        int[] pageIDs = new int[0];
+    /* read the list of all page IDs from an input file that are used to build the network
+     * Each line contains a page ID, optionally followed by its number of annotations and sentences
+     */
+    public PageList readPageIDs() {
+        PageList pages = new PageList(new int[0]);
         try {
             TIntArrayList ids = new TIntArrayList();
+            TIntArrayList annotationCounts = new TIntArrayList();
+            TIntArrayList sentenceCounts = new TIntArrayList();
             BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(pageIDList), "UTF-8"));
             String line;
             while ((line = bf.readLine()) != null) {
-                ids.add(Integer.parseInt(line));
+                String[] splitline = line.split(sepChar);
+                ids.add(Integer.parseInt(splitline[0]));
+                annotationCounts.add(splitline.length > 1 ? Integer.parseInt(splitline[1]) : 0);
+                sentenceCounts.add(splitline.length > 2 ? Integer.parseInt(splitline[2]) : 0);
             }            
             bf.close();
             
-            // convert to array of ints
-            pageIDs = ids.toArray();
+            // convert to arrays of ints
+            pages = new PageList(ids.toArray(), annotationCounts.toArray(), sentenceCounts.toArray());
             
         } catch (Exception e) {
             System.out.println("Problem reading page IDs from file.");
             e.printStackTrace();
         }
-        return pageIDs;
+        return pages;
+    }
+    
+    // open the source of the input documents: a local file if one is specified, the mongoDB otherwise
+    public static DocumentSource openDocumentSource() throws Exception {
+        if (localSourceFile != null) {
+            return new LocalFileDocumentSource(localSourceFile);
+        } else {
+            return new MongoDocumentSource();
+        }
     }
     
     // extract a list of all page IDs from the data set instead, then store it for later use
-    public int[] generatePageIDs() {
-        int[] pageIDs = new int[0];
+    public PageList generatePageIDs(DocumentSource source) {
+        PageList pages = new PageList(new int[0]);
         
         try {
-            TIntHashSet ids = new TIntHashSet();
+            // getting IDs (and the size of pages) from annotations
+            pages = source.scanPages();
             
-            Logger mongoLogger = Logger.getLogger("org.mongodb.driver");
-            mongoLogger.setLevel(Level.WARNING);
-            
-            ServerAddress address = new ServerAddress(MongoAdress, MongoPort);
-            MongoClient mongoClient;
-            if (mongocred != null) {
-                mongoClient = new MongoClient(address, Arrays.asList(mongocred));
+            if (costAwareScheduling && pages.hasCounts()) {
+                // start with the most expensive pages, so that they do not end up at the tail of the run
+                pages.sortByCostDescending();
             } else {
-                mongoClient = new MongoClient(address);
-            }
-            MongoDatabase db = mongoClient.getDatabase(MongoDBname);
-            
-            // getting IDs from annotations
-            MongoCollection<Document> cANN = db.getCollection(MongoCollectionAnnotations);
-            long nAnnotations = cANN.count();
-            System.out.println("Found " + nAnnotations + " annotations. Searching for page IDs.");
-            long nextpercent = nAnnotations / 1000;
-            long currentAnnotation = 0;
-            double percentcount = 0.1;
-            DecimalFormat dform = new DecimalFormat("##.#");
-
-            MongoCursor<Document> annotationCursor = cANN.find().noCursorTimeout(true).iterator();
-            
-            while (annotationCursor.hasNext()) {
-                
-                if (++currentAnnotation == nextpercent) {
-                    nextpercent += nAnnotations / 1000;
-                    percentcount += 0.1;
-                    System.out.print("\rSearched " + dform.format(percentcount) + "% of annotations.     ");
-                }
-                
-                Document obj = annotationCursor.next();
-                ids.add(obj.getInteger(mongoIdentAnnotation_pageId));
+                // ensure deterministic randomization of the page IDs
+                pages.shuffle(shuffleRandomSeed);
             }
-            System.out.println();
-            annotationCursor.close();
-            
-            // convert to list, make sure its (deterministically) shuffled and convert to array
-            TIntArrayList idlist = new TIntArrayList(ids);
-            
-            // ensure deterministic randomization of the page IDs
-            idlist.sort();
-            idlist.shuffle(new Random(shuffleRandomSeed));
-            
-            // convert to an array and sort
-            pageIDs = ids.toArray();
 
             // write list to file for later use in re-runs
             BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(pageIDList), "UTF-8"), bufferSize);
-            for (int pid : pageIDs) {
-                bw.append(pid + "\n");
+            for (int i=0; i<pages.size(); i++) {
+                bw.append(pages.pageIDs[i] + sepChar + pages.annotationCounts[i] + sepChar + pages.sentenceCounts[i] + "\n");
             }
             bw.close();
-            mongoClient.close();
         } catch (Exception e) {
             System.out.println("Problem generating page IDs from database.");
             e.printStackTrace();
         }
         
-        return pageIDs;
+        return pages;
     }
     
     /* Main Routine
      * Extraction of co-occurrences from the documents and building of nodes and (unaggregated) edges
      */
     public ParallelExtractNetworkFromMongo() {
+        this(null);
+    }
+    
+    /* Extraction with checkpoints (if checkpoint is not null). The pages are processed in segments of
+     * checkpointInterval pages. After each segment, the workers have written all of their edges as runs and
+     * the new entries of the node dictionaries are appended to snapshot files, so that a resumed run can
+     * continue with the next segment.
+     */
+    public ParallelExtractNetworkFromMongo(Checkpoint checkpoint) {
+        this(checkpoint, null, null, null);
+    }
+    
+    /* Extraction of the pages that are not yet contained in an existing graph (incremental update).
+     * The node dictionaries of the existing graph are used to look up known nodes, new nodes get IDs
+     * after the existing ones (baseSizes). Pages and sentences have no dictionaries (their entries are null),
+     * the pages of the existing graph are skipped.
+     */
+    public ParallelExtractNetworkFromMongo(Checkpoint checkpoint, ArrayList<NodeDictionary> baseMaps, int[] baseSizes,
+                                           TIntHashSet existingPages) {
+        this.checkpoint = checkpoint;
         
-        // get the IDs of all pages of interest
-        int[] pageIDs;
-        if (readIDsFromFile) {
-            System.out.println("Reading page IDs from file.");
-            pageIDs = readPageIDs();
+        if (baseMaps != null) {
+            valueToIdMaps = baseMaps;
+            this.baseSizes = baseSizes.clone();
+            this.existingPages = existingPages;
+            incremental = true;
         } else {
-            System.out.println("Generating page IDs from database.");
-            pageIDs = generatePageIDs();
+            valueToIdMaps = new ArrayList<NodeDictionary>();
+            for (int i=0; i<nANNOTATIONS; i++) {
+                valueToIdMaps.add((i < PAG) ? NodeDictionary.create() : null);
+            }
         }
-        System.out.println("Number of pages with annotations: " + pageIDs.length);
-        count_Articles = pageIDs.length;
-        System.gc();
-        
-        valueToIdMaps = new ArrayList<TObjectIntHashMap<String>>();
-        for (int i=0; i<nANNOTATIONS; i++) {
-            valueToIdMaps.add(new TObjectIntHashMap<String>());
+        // the names of pages and sentences are written to the temporary node files right away
+        for (int i=PAG; i<nANNOTATIONS; i++) {
+            sequentialNodes[i] = new SequentialNodeSet(tmpfolder + "tmp_" + vertexFileNames[i], this.baseSizes[i]);
         }
-        currentIDs = new int[nANNOTATIONS];
+        // the edge runs (and the runs with canonical IDs), optionally split into one partition per source type
+        int partitions = partitionEdgesByType ? nANNOTATIONS : 1;
+        edgeRuns = new EdgeRunSet(tmpRunDirectory, compressTemporaryFiles, partitions, bufferSize);
+        remappedRuns = new EdgeRunSet(remappedRunDirectory, compressTemporaryFiles, partitions, bufferSize);
         
         try {
-            BufferedWriter ew = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpfile), "UTF-8"), bufferSize);
+            // the distance is stored in a single byte of the edge records
+            if (maxDistanceInSentences > EdgeRecord.MAX_DISTANCE) {
+                throw new IllegalArgumentException("maxDistanceInSentences must not exceed " + EdgeRecord.MAX_DISTANCE);
+            }
+            
+            if (checkpoint != null && checkpoint.exists()) {
+                restoreFromCheckpoint();
+                if (checkpoint.isCompleted(Checkpoint.stageExtraction)) {
+                    System.out.println("Extraction was completed in a previous run.");
+                    if (!checkpoint.isCompleted(Checkpoint.stageNodes)) {
+                        restoreDictionaries();
+                    }
+                    extractionSucceeded = true;
+                    return;
+                }
+            }
             
-            Logger mongoLogger = Logger.getLogger("org.mongodb.driver");
-            mongoLogger.setLevel(Level.WARNING);
+            DocumentSource source = openDocumentSource();
             
-            ServerAddress address = new ServerAddress(MongoAdress, MongoPort);
-            MongoClient mongoClient;
-            if (mongocred != null) {
-                mongoClient = new MongoClient(address, Arrays.asList(mongocred));
+            // get the IDs of all pages of interest (a resumed run has to use the same list of pages)
+            PageList pages;
+            if (readIDsFromFile || pagesDone > 0) {
+                System.out.println("Reading page IDs from file.");
+                pages = readPageIDs();
             } else {
-                mongoClient = new MongoClient(address);
+                System.out.println("Generating page IDs from database.");
+                pages = generatePageIDs(source);
+            }
+            if (incremental) {
+                // pages that are already contained in the graph are not added a second time
+                pages = pages.removeAll(existingPages);
+                System.out.println("Number of new pages with annotations: " + pages.size());
+                if (pages.size() == 0) {
+                    source.close();
+                    extractionSucceeded = true;
+                    return;
+                }
+            } else {
+                System.out.println("Number of pages with annotations: " + pages.size());
+            }
+            count_Articles = pages.size();
+            System.gc();
+            
+            // continue with the edge runs of the previous run up to the last checkpoint
+            if (pagesDone > 0) {
+                System.out.println("Resuming extraction after " + pagesDone + " pages.");
+                restoreDictionaries();
+            } else {
+                edgeRuns.clear();
+            }
+            for (int i=PAG; i<nANNOTATIONS; i++) {
+                sequentialNodes[i].open(pagesDone > 0);
             }
-            MongoDatabase db = mongoClient.getDatabase(MongoDBname);
-            MongoCollection<Document> cANN = db.getCollection(MongoCollectionAnnotations);
-            MongoCollection<Document> cSEN = db.getCollection(MongoCollectionSentences);
             
-            System.out.println("Number of sentences overall: " + cSEN.count());
-            count_Sentences = (int) cSEN.count();
-            System.out.println("Number of annotations overall: " + cANN.count());
-            count_Annotations = (int) cANN.count();
+            System.out.println("Number of sentences overall: " + source.countSentences());
+            count_Sentences = (int) source.countSentences();
+            System.out.println("Number of annotations overall: " + source.countAnnotations());
+            count_Annotations = (int) source.countAnnotations();
+            if (incremental) {
+                // only the new pages are added to the graph, so their sentences and annotations are counted
+                // while they are processed (the collection also contains the pages of the existing graph)
+                count_Sentences = (pagesDone > 0) ? checkpoint.getInt("count_Sentences") : 0;
+                count_Annotations = (pagesDone > 0) ? checkpoint.getInt("count_Annotations") : 0;
+            }
             
             System.out.println("Parsing annotations and extracting network");
             
             HashSet<String> stopwords = readStopWords();
-            HashSet<String> invalidTypes = new HashSet<String>();
-            
-            MultiThreadHub hub = new MultiThreadHub(pageIDs, valueToIdMaps, currentIDs, ew, nThreads);
             
-            ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
-            for (int i=0; i<nThreads; i++) {
-                MultiThreadWorker w = new MultiThreadWorker(hub, cANN, cSEN, stopwords);
-                executor.execute(w);
+            int segmentSize = (checkpoint != null && checkpointInterval > 0) ? checkpointInterval : pages.size();
+            while (pagesDone < pages.size()) {
+                int segmentEnd = (int) Math.min((long) pagesDone + segmentSize, pages.size());
+                PageList segment = pages.subList(pagesDone, segmentEnd);
+                
+                boolean pipeline = usePipeline || useVirtualThreads;
+                int nWorkers = pipeline ? nProcessThreads : nThreads;
+                // pages are handed out in the order of the list. Chunks are sized by cost if the page sizes are known
+                long[] costPrefix = (costAwareScheduling && segment.hasCounts()) ? segment.costPrefixSums() : null;
+                MultiThreadHub hub = new MultiThreadHub(segment.pageIDs, costPrefix, valueToIdMaps, sequentialNodes, edgeRuns, nWorkers);
+                
+                if (pipeline) {
+                    // separate fetching, processing and writing stages (returns once all edges are written)
+                    new ConstructionPipeline(hub, source, stopwords).run();
+                } else {
+                    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+                    for (int i=0; i<nThreads; i++) {
+                        MultiThreadWorker w = new MultiThreadWorker(hub, source, stopwords);
+                        executor.execute(w);
+                    }
+                    executor.shutdown();
+                }
+                
+                while (true) {
+                    try {
+                        hub.latch.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        System.out.println();
+                        System.out.println("Waiting was interrupted (main)");
+                    }
+                }
+                System.out.println();
+                if (hub.getFailure() != null) {
+                    throw new Exception("The extraction of edges failed", hub.getFailure());
+                }
+                
+                // sum up the statistics of all segments
+                count_ValidAnnotations += hub.getValidAnnotations();
+                failedSentences += hub.getFailedSentences();
+                invalidAnnotationCount += hub.getAnnotationsWithInvalidType();
+                invalidTypes.addAll(hub.getInvalidTypes());
+                count_unaggregatedEdges += hub.getUnaggregatedEdges();
+                for (int i=0; i<nANNOTATIONS; i++) {
+                    count_ValidAnnotationsByType[i] += hub.getValidAnnotationsByType()[i];
+                }
+                negativeOffsetCount += hub.getNegativeOffsetCount();
+                if (incremental) {
+                    count_Sentences += hub.getProcessedSentences();
+                    count_Annotations += hub.getProcessedAnnotations();
+                }
+                long[] cacheStatistics = hub.getCacheStatistics();
+                for (int i=0; i<cacheStatistics.length; i++) {
+                    nearCacheStatistics[i] += cacheStatistics[i];
+                }
+                long[] combinerStatistics = hub.getCombinerStatistics();
+                for (int i=0; i<combinerStatistics.length; i++) {
+                    this.combinerStatistics[i] += combinerStatistics[i];
+                }
+                System.out.println(hub.getTailIdleReport());
+                pagesDone = segmentEnd;
+                
+                if (checkpoint != null) {
+                    snapshotDictionaries();
+                    edgeRuns.sync();
+                    checkpoint.put(keyEdgeRuns, edgeRuns.size());
+                    saveCheckpoint(null);
+                    System.out.println("Checkpoint: extracted " + pagesDone + " of " + pages.size() + " pages.");
+                }
             }
-            executor.shutdown();
             
-            while (true) {
-                try {
-                    hub.latch.await();
-                    break;
-                } catch (InterruptedException e) {
-                    System.out.println();
-                    System.out.println("Waiting was interrupted (main)");
-                }
+            for (int i=PAG; i<nANNOTATIONS; i++) {
+                sequentialNodes[i].close();
             }
-                        
-            ew.close();
-            mongoClient.close();
+            source.close();
             System.out.println();
             
-            count_ValidAnnotations = hub.getValidAnnotations();
-            int failedSentences = hub.getFailedSentences();
-            int invalidAnnotationCount = hub.getAnnotationsWithInvalidType();
-            invalidTypes = hub.getInvalidTypes();
-            count_unaggregatedEdges = hub.getUnaggregatedEdges();
-            count_ValidAnnotationsByType = hub.getValidAnnotationsByType();
-            int negativeOffsetCount = hub.getNegativeOffsetCount();
-            
-            System.out.println("Number of unaggregated edges: " + count_unaggregatedEdges);
+            System.out.println("Number of unaggregated edges: " + count_unaggregatedEdges + " (in " + edgeRuns.size() + " sorted runs)");
             System.out.println("Errors occurred for " + failedSentences + " sentences.");
             System.out.println("Found " + count_ValidAnnotations + " valid annotations.");
             System.out.println("Found " + invalidAnnotationCount + " annotations with invalid type.");
@@ -328,21 +460,188 @@ public class ParallelExtractNetworkFromMongo {
                 System.out.print(" " + s);
             }
             System.out.println();
+            long cacheLookups = nearCacheStatistics[0] + nearCacheStatistics[1];
+            System.out.println("Node ID near-cache hit ratio: " + new DecimalFormat("#.#").format(100.0 * nearCacheStatistics[0] / Math.max(1, cacheLookups))
+                               + "% of " + cacheLookups + " look-ups. Resolved " + nearCacheStatistics[2] + " values in "
+                               + nearCacheStatistics[3] + " bulk calls.");
+            if (combineEdges) {
+                System.out.println("Edge combiner: " + combinerStatistics[0] + " edges were written as " + combinerStatistics[1]
+                                   + " distinct edges (" + new DecimalFormat("#.#").format(100.0 * combinerStatistics[1] / Math.max(1, combinerStatistics[0]))
+                                   + "% of the edges).");
+            }
+            System.out.println("Memory usage of the node dictionaries:");
+            for (int i=0; i<nANNOTATIONS; i++) {
+                if (sequentialNodes[i] != null) {
+                    System.out.println("  " + setNames[i] + ": " + (sequentialNodes[i].nextID() - this.baseSizes[i]) + " values, no dictionary");
+                } else {
+                    System.out.println("  " + setNames[i] + ": " + valueToIdMaps.get(i).memoryReport());
+                }
+            }
+            
+            extractionSucceeded = true;
             
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
     
-    public void writeTemporaryNodesToFiles() {
+    /* Append the dictionary entries that were added since the last checkpoint to the snapshot files. The node
+     * files of pages and sentences are written during the extraction and only have to be forced to disk.
+     */
+    private void snapshotDictionaries() throws Exception {
+        int[] snapshotSizes = checkpoint.has(keyDictionarySizes) ? checkpoint.getIntArray(keyDictionarySizes) : new int[nANNOTATIONS];
+        long[] snapshotLengths = new long[nANNOTATIONS];
+        for (int i=0; i<nANNOTATIONS; i++) {
+            if (sequentialNodes[i] != null) {
+                snapshotLengths[i] = sequentialNodes[i].sync();
+                snapshotSizes[i] = sequentialNodes[i].nextID();
+                continue;
+            }
+            FileOutputStream out = new FileOutputStream(tmpfolder + checkpointPrefix + vertexFileNames[i], true);
+            BufferedWriter w = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), bufferSize);
+            for (TObjectIntIterator<String> it = valueToIdMaps.get(i).iterator(); it.hasNext(); ) {
+                it.advance();
+                if (it.value() >= snapshotSizes[i]) {
+                    w.append(it.value() + sepChar + it.key() + "\n");
+                }
+            }
+            w.flush();
+            out.getFD().sync();
+            snapshotLengths[i] = out.getChannel().size();
+            w.close();
+            snapshotSizes[i] = nextID(i);
+        }
+        checkpoint.put(keyDictionarySizes, snapshotSizes);
+        checkpoint.put(keyDictionaryLengths, snapshotLengths);
+    }
+    
+    // load the node dictionaries from the snapshot files of the last checkpoint
+    private void restoreDictionaries() throws Exception {
+        System.out.println("Restoring node dictionaries from checkpoint.");
+        int[] snapshotSizes = checkpoint.getIntArray(keyDictionarySizes);
+        long[] snapshotLengths = checkpoint.getLongArray(keyDictionaryLengths);
+        for (int i=0; i<nANNOTATIONS; i++) {
+            // entries that were written after the last checkpoint are discarded
+            if (sequentialNodes[i] != null) {
+                truncateFile(sequentialNodes[i].getFileName(), snapshotLengths[i]);
+                sequentialNodes[i].setNextID(snapshotSizes[i]);
+                continue;
+            }
+            String filename = tmpfolder + checkpointPrefix + vertexFileNames[i];
+            truncateFile(filename, snapshotLengths[i]);
+            NodeDictionary map = valueToIdMaps.get(i);
+            BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+            String line;
+            while ((line = bf.readLine()) != null) {
+                int pos = line.indexOf(sepChar);
+                map.put(line.substring(pos + 1), Integer.parseInt(line.substring(0, pos)));
+            }
+            bf.close();
+            map.setNextID(snapshotSizes[i]);
+        }
+    }
+    
+    private static void truncateFile(String filename, long length) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+        raf.setLength(length);
+        raf.close();
+    }
+    
+    // store all counters in the checkpoint and mark the given stage as completed (if not null)
+    private void saveCheckpoint(String completedStage) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            checkpoint.put(keyPagesDone, pagesDone);
+            checkpoint.put("count_Articles", count_Articles);
+            checkpoint.put("count_Sentences", count_Sentences);
+            checkpoint.put("count_Annotations", count_Annotations);
+            checkpoint.put("count_ValidAnnotations", count_ValidAnnotations);
+            checkpoint.put("count_ValidAnnotationsByType", count_ValidAnnotationsByType);
+            checkpoint.put("count_unaggregatedEdges", count_unaggregatedEdges);
+            checkpoint.put("failedSentences", failedSentences);
+            checkpoint.put("invalidAnnotationCount", invalidAnnotationCount);
+            checkpoint.put("negativeOffsetCount", negativeOffsetCount);
+            checkpoint.put("setSizes", setSizes);
+            checkpoint.put("aggregatedEdgeCounts", aggregatedEdgeCounts);
+            if (completedStage != null) {
+                checkpoint.setCompleted(completedStage);
+            }
+            checkpoint.save();
+        } catch (Exception e) {
+            System.out.println("Problem writing checkpoint.");
+            e.printStackTrace();
+        }
+    }
+    
+    // restore all counters from the checkpoint
+    private void restoreFromCheckpoint() {
+        pagesDone = checkpoint.getInt(keyPagesDone);
+        count_Articles = checkpoint.getInt("count_Articles");
+        count_Sentences = checkpoint.getInt("count_Sentences");
+        count_Annotations = checkpoint.getInt("count_Annotations");
+        count_ValidAnnotations = checkpoint.getInt("count_ValidAnnotations");
+        count_ValidAnnotationsByType = checkpoint.getIntArray("count_ValidAnnotationsByType");
+        count_unaggregatedEdges = checkpoint.getLong("count_unaggregatedEdges");
+        failedSentences = checkpoint.getInt("failedSentences");
+        invalidAnnotationCount = checkpoint.getInt("invalidAnnotationCount");
+        negativeOffsetCount = checkpoint.getInt("negativeOffsetCount");
+        setSizes = checkpoint.getIntArray("setSizes");
+        aggregatedEdgeCounts = checkpoint.getLongArray("aggregatedEdgeCounts");
+        
+        // runs that were written after the checkpoint are discarded
+        edgeRuns.truncate(checkpoint.has(keyEdgeRuns) ? checkpoint.getInt(keyEdgeRuns) : 0);
+        boolean remapped = checkpoint.isCompleted(Checkpoint.stageNodes) && checkpoint.has(keyRemappedRuns);
+        remappedRuns.truncate(remapped ? checkpoint.getInt(keyRemappedRuns) : 0);
+    }
+    
+    // true if the extraction of the pages finished without errors
+    public boolean extractionSucceeded() {
+        return extractionSucceeded;
+    }
+    
+    public long getUnaggregatedEdgeCount() {
+        return count_unaggregatedEdges;
+    }
+    
+    // number of nodes in each node set (available once the temporary node files are written)
+    public static int[] getSetSizes() {
+        return setSizes;
+    }
+    
+    // true if the stage was completed in a previous run
+    public boolean isCompleted(String stage) {
+        return checkpoint != null && checkpoint.isCompleted(stage);
+    }
+    
+    // record the result of a construction stage. Returns false if the stage failed.
+    public boolean completeStage(String stage, boolean succeeded) {
+        if (succeeded) {
+            saveCheckpoint(stage);
+        } else {
+            System.out.println("Construction stage " + stage + " failed.");
+            if (checkpoint != null) {
+                System.out.println("Set resumeFromCheckpoint to TRUE to continue from the last checkpoint.");
+            }
+        }
+        return succeeded;
+    }
+    
+    public boolean writeTemporaryNodesToFiles() {
         // write information to files
         System.out.println("\nWriting data to file");
         
         try {
             
-            // write metadata
+            // write metadata (an incremental update adds to the counts of the existing graph and writes the
+            // metadata to the temporary folder until the graph files have been merged)
             System.out.println("Writing metadata");
-            BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outfolder + metaFileName), "UTF-8"), bufferSize);
+            if (incremental) {
+                addCountsOfExistingGraph();
+            }
+            String metaFile = incremental ? tmpfolder + metaFileName : outfolder + metaFileName;
+            BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(metaFile), "UTF-8"), bufferSize);
             w.append(metaHeaderVersion);
             
             w.append("# OPTION - maximum distance in sentences for edge creation: "+ maxDistanceInSentences +"\n");
@@ -351,24 +650,44 @@ public class ParallelExtractNetworkFromMongo {
             w.append("# Number of sentences with annotations: "+ count_ValidAnnotationsByType[SEN] +"\n");
             w.append("# Number of annotations: "+ count_Annotations +"\n");
             w.append("# Number of valid annotations: "+ count_ValidAnnotations +"\n");
-            w.append("# Number of unaggregated edges: " + count_unaggregatedEdges +"\n");
+            w.append("# Number of unaggregated edges: " + (count_unaggregatedEdges + existingUnaggregatedEdges) +"\n");
             for (int i=0; i<4; i++) {
                 w.append("# Valid annotations of type " + setNames[i] + ": "+ count_ValidAnnotationsByType[i]+"\n");
             }
 
             w.append(metaHeader);
             for (int i=0; i<nANNOTATIONS; i++) {
-                w.append(setNames[i] + sepChar + valueToIdMaps.get(i).size() + "\n");
+                w.append(setNames[i] + sepChar + nextID(i) + "\n");
             }
             w.close();
             
-            // write temporary node data to get rid of the valueToIdMaps
+            // the IDs that were assigned during the extraction depend on the order in which the threads found
+            // the values. For a reproducible graph, they are replaced by IDs in the lexicographic order of the values.
+            int[][] canonicalIDs = null;
+            if (deterministicIDs) {
+                canonicalIDs = computeCanonicalIDs();
+                if (!remapEdges(canonicalIDs)) {
+                    return false;
+                }
+            }
+            
+            // write temporary node data to get rid of the valueToIdMaps (only new nodes in an incremental update)
             System.out.println("Writing temporary node data");
             for (int i=0; i<nANNOTATIONS; i++) {
-                w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpfolder + "tmp_" + vertexFileNames[i]), "UTF-8"), bufferSize);
+                if (sequentialNodes[i] != null) {
+                    // the nodes were written during the extraction, only the IDs may have to be replaced
+                    if (canonicalIDs != null) {
+                        remapNodeFile((char) i, canonicalIDs);
+                    }
+                    continue;
+                }
+                w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryNodeFileName(i)), "UTF-8"), bufferSize);
                 for (TObjectIntIterator<String> it = valueToIdMaps.get(i).iterator(); it.hasNext(); ) {
                     it.advance();
-                    w.append(it.value() + sepChar + it.key() + "\n");
+                    if (it.value() >= baseSizes[i]) {
+                        int id = (canonicalIDs != null) ? canonicalIDs[i][it.value() - baseSizes[i]] : it.value();
+                        w.append(id + sepChar + it.key() + "\n");
+                    }
                 }
                 w.close();
             }
@@ -376,25 +695,223 @@ public class ParallelExtractNetworkFromMongo {
             // store the number of nodes in each set then clear the map of nodes to free memory
             // this is required for building the degree sequences later on after edges aggregation
             for (int i=0; i<nANNOTATIONS; i++) {
-                setSizes[i] = valueToIdMaps.get(i).size();
+                setSizes[i] = nextID(i);
             }            
             valueToIdMaps.clear();
             
         } catch (Exception e) {
             e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+    
+    // the ID that is assigned to the next new node of the given type
+    private int nextID(int type) {
+        return (sequentialNodes[type] != null) ? sequentialNodes[type].nextID() : valueToIdMaps.get(type).nextID();
+    }
+    
+    /* Name of the temporary node file of a node type. The node files with canonical IDs are written separately,
+     * so that the node files of pages and sentences from the extraction stay intact until the nodes are written.
+     */
+    public static String temporaryNodeFileName(int type) {
+        return tmpfolder + (deterministicIDs ? "tmp_canonical_" : "tmp_") + vertexFileNames[type];
+    }
+    
+    /* Canonical IDs of all nodes that were added in this run (IDs of an existing graph are kept). The new values
+     * of each type are sorted lexicographically and numbered in this order, starting after the existing nodes.
+     * Entry [type][id - baseSizes[type]] contains the canonical ID of the node with the given ID.
+     */
+    private int[][] computeCanonicalIDs() throws Exception {
+        System.out.println("Assigning canonical node IDs");
+        int[][] canonicalIDs = new int[nANNOTATIONS][];
+        for (int i=0; i<nANNOTATIONS; i++) {
+            if (sequentialNodes[i] != null) {
+                // pages and sentences have no dictionary, their names are read from the node file
+                String[] values = new String[sequentialNodes[i].nextID() - baseSizes[i]];
+                BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(sequentialNodes[i].getFileName()), "UTF-8"));
+                String line;
+                while ((line = bf.readLine()) != null) {
+                    int pos = line.indexOf(sepChar);
+                    values[Integer.parseInt(line.substring(0, pos)) - baseSizes[i]] = line.substring(pos + 1);
+                }
+                bf.close();
+                String[] sorted = values.clone();
+                Arrays.parallelSort(sorted);
+                
+                canonicalIDs[i] = new int[values.length];
+                for (int j=0; j<values.length; j++) {
+                    canonicalIDs[i][j] = baseSizes[i] + Arrays.binarySearch(sorted, values[j]);
+                }
+                continue;
+            }
+            NodeDictionary dictionary = valueToIdMaps.get(i);
+            String[] values = new String[dictionary.nextID() - baseSizes[i]];
+            int n = 0;
+            for (TObjectIntIterator<String> it = dictionary.iterator(); it.hasNext(); ) {
+                it.advance();
+                if (it.value() >= baseSizes[i]) {
+                    values[n++] = it.key();
+                }
+            }
+            Arrays.parallelSort(values);
+            
+            canonicalIDs[i] = new int[values.length];
+            for (int j=0; j<values.length; j++) {
+                canonicalIDs[i][dictionary.get(values[j]) - baseSizes[i]] = baseSizes[i] + j;
+            }
+        }
+        return canonicalIDs;
+    }
+    
+    /* Rewrite the unaggregated edges with canonical IDs. Each run is read, rewritten, sorted again and written
+     * as a run of the remapped set. The runs are processed by nThreads threads. If the edges are partitioned by
+     * type, each partition of a run is processed as a run of its own.
+     */
+    private boolean remapEdges(final int[][] canonicalIDs) {
+        System.out.println("Rewriting unaggregated edges with canonical node IDs");
+        remappedRuns.clear();
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            final List<File> runs = edgeRuns.allFiles();
+            ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int t=0; t<nThreads; t++) {
+                final int first = t;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        EdgeRunBuffer run = new EdgeRunBuffer();
+                        for (int r=first; r<runs.size(); r+=nThreads) {
+                            EdgeRecordReader reader = new EdgeRecordReader(runs.get(r).getPath(), bufferSize);
+                            while (reader.next()) {
+                                remapEdge(run, reader.high(), reader.low(), canonicalIDs);
+                            }
+                            reader.close();
+                            remappedRuns.write(run);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+            if (checkpoint != null) {
+                remappedRuns.sync();
+                checkpoint.put(keyRemappedRuns, remappedRuns.size());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            executor.shutdown();
+        }
+        return true;
+    }
+    
+    // edges between nodes of the same type start at the node with the lower ID, which may change by the remapping
+    // (unless the edges are partitioned by type, where both directions of each edge are stored anyway)
+    private void remapEdge(EdgeRunBuffer run, long high, long low, int[][] canonicalIDs) {
+        char sourceType = EdgeRecord.sourceType(high);
+        char targetType = EdgeRecord.targetType(low);
+        int sourceId = canonicalID(sourceType, EdgeRecord.sourceId(high), canonicalIDs);
+        int targetId = canonicalID(targetType, EdgeRecord.targetId(low), canonicalIDs);
+        if (!partitionEdgesByType && sourceType == targetType && sourceId > targetId) {
+            int tmp = sourceId;
+            sourceId = targetId;
+            targetId = tmp;
+        }
+        int distance = EdgeRecord.distance(low);
+        run.add(EdgeRecord.high(sourceType, sourceId));
+        run.add(EdgeRecord.low(targetType, targetId, distance, EdgeRecord.count(low)));
+    }
+    
+    private int canonicalID(char type, int id, int[][] canonicalIDs) {
+        return (id < baseSizes[type]) ? id : canonicalIDs[type][id - baseSizes[type]];
+    }
+    
+    // write the node file of pages or sentences with canonical IDs
+    private void remapNodeFile(char type, int[][] canonicalIDs) throws Exception {
+        BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(sequentialNodes[type].getFileName()), "UTF-8"));
+        BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryNodeFileName(type)), "UTF-8"), bufferSize);
+        String line;
+        while ((line = bf.readLine()) != null) {
+            int pos = line.indexOf(sepChar);
+            w.append(canonicalID(type, Integer.parseInt(line.substring(0, pos)), canonicalIDs) + line.substring(pos) + "\n");
+        }
+        bf.close();
+        w.close();
+    }
+    
+    // add the counts from the metadata file of the existing graph to the counts of the new pages
+    // (except for the unaggregated edges, whose count is still needed for sorting the new edges)
+    private void addCountsOfExistingGraph() throws Exception {
+        BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(outfolder + metaFileName), "UTF-8"));
+        String line;
+        while ((line = bf.readLine()) != null) {
+            int pos = line.lastIndexOf(": ");
+            if (!line.startsWith(commentChar) || pos < 0) continue;
+            String label = line.substring(0, pos);
+            long value;
+            try {
+                value = Long.parseLong(line.substring(pos + 2).trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (label.endsWith("Number of pages with annotations")) {
+                count_Articles += (int) value;
+            } else if (label.endsWith("Number of sentences")) {
+                count_Sentences += (int) value;
+            } else if (label.endsWith("Number of sentences with annotations")) {
+                count_ValidAnnotationsByType[SEN] += (int) value;
+            } else if (label.endsWith("Number of annotations")) {
+                count_Annotations += (int) value;
+            } else if (label.endsWith("Number of valid annotations")) {
+                count_ValidAnnotations += (int) value;
+            } else if (label.endsWith("Number of unaggregated edges")) {
+                existingUnaggregatedEdges = value;
+            } else {
+                for (int i=0; i<4; i++) {
+                    if (label.endsWith("Valid annotations of type " + setNames[i])) {
+                        count_ValidAnnotationsByType[i] += (int) value;
+                    }
+                }
+            }
         }
+        bf.close();
     }
     
-    public void sortUnaggregatedEdgelistExternally() {
+    public boolean sortUnaggregatedEdgelistExternally() {
         System.out.println("Sorting unaggregated edges.");
+        EdgeRunSet runs = sortedRuns();
+        if (aggregateWhileMerging) {
+            System.out.println("Unaggregated edges: " + count_unaggregatedEdges + " in " + runs.size()
+                               + " sorted runs, which are merged during the aggregation.");
+            return true;
+        }
+        File tempFileStore = createSortingDirectory();
         
-        // compute number of lines per file
-        int nLinesPerFile = (int) Math.ceil((double) count_unaggregatedEdges / (double) maxTempFiles);
-        
-        // initialize sorter
-        ParallelDiskMergeSort dms = new ParallelDiskMergeSort(count_unaggregatedEdges, nLinesPerFile, bufferSize, edgecomparator);
+        // the workers have already written sorted runs, which only have to be merged
+        boolean succeeded;
+        if (partitionEdgesByType) {
+            succeeded = mergePartitions(runs, tempFileStore);
+        } else {
+            System.out.print("Unaggregated edges: " + count_unaggregatedEdges + ". ");
+            succeeded = mergeRuns(runs.files(), new File(sortedtmpfile), tempFileStore, maxTempFiles, true);
+        }
         
-        // make sure that the temporary folder exists
+        // remove the temporary folder
+        tempFileStore.delete();
+        return succeeded;
+    }
+    
+    // the sorted runs of unaggregated edges (the remapped runs if the IDs have been made deterministic)
+    private EdgeRunSet sortedRuns() {
+        return deterministicIDs ? remappedRuns : edgeRuns;
+    }
+    
+    // make sure that the temporary folder for sorting exists and is empty
+    private static File createSortingDirectory() {
         File tempFileStore = new File(tmpSortingDirectory);
         if (!tempFileStore.exists()) {
             tempFileStore.mkdir();
@@ -403,122 +920,248 @@ public class ParallelExtractNetworkFromMongo {
                 file.delete();
             }
         }
-        
-        dms.sortFile(new File(tmpfile), new File(sortedtmpfile), tempFileStore);
-        
-        // remove the temporary folder
-        tempFileStore.delete();
+        return tempFileStore;
     }
     
-    public void aggregateEdgesAndSplitIntoIndividualFiles() {
+    // merge sorted runs into a single sorted file (the unaggregated edges are stored in the binary record
+    // format, identical edges may have been combined into a single record)
+    private boolean mergeRuns(List<File> runs, File output, File tempFileStore, int maxOpenFiles, boolean verbose) {
+        long records;
+        try {
+            records = recordCount(runs);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        System.out.println("Merging " + runs.size() + " runs with " + records + " edge records into " + output.getName() + ".");
+        EdgeRecordSort dms = new EdgeRecordSort(records, edgesPerRun, bufferSize, compressTemporaryFiles);
+        dms.setVerbose(verbose);
+        return dms.mergeRuns(runs, output, tempFileStore, maxOpenFiles);
+    }
+    
+    // merge sorted runs (or a single sorted file) and aggregate the merged edges (see EdgeAggregator)
+    private static boolean mergeAndAggregate(List<File> runs, EdgeAggregator aggregator, File tempFileStore, int maxOpenFiles,
+                                             boolean verbose) {
+        long records;
+        try {
+            records = recordCount(runs);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        EdgeRecordSort dms = new EdgeRecordSort(records, edgesPerRun, bufferSize, compressTemporaryFiles);
+        dms.setVerbose(verbose);
+        return dms.mergeRuns(runs, aggregator, tempFileStore, maxOpenFiles);
+    }
+    
+    // merge the runs of each source type into a sorted file of its own (the types are merged in parallel)
+    private boolean mergePartitions(final EdgeRunSet runs, final File tempFileStore) {
+        int nParallel = Math.max(1, Math.min(nThreads, nANNOTATIONS));
+        final int maxOpenFiles = Math.max(2, maxTempFiles / nParallel);
+        ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int i=0; i<nANNOTATIONS; i++) {
+            final int type = i;
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return mergeRuns(runs.files(type), new File(sortedPartitionFileName(type)), tempFileStore, maxOpenFiles, false);
+                }
+            });
+        }
+        return runInParallel(tasks, nParallel);
+    }
+    
+    // run the tasks with the given number of threads and return true if all of them succeeded
+    private static boolean runInParallel(ArrayList<Callable<Boolean>> tasks, int nParallel) {
+        ExecutorService executor = Executors.newFixedThreadPool(nParallel);
+        boolean succeeded = true;
+        try {
+            for (Future<Boolean> f : executor.invokeAll(tasks)) {
+                succeeded &= f.get();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            succeeded = false;
+        } finally {
+            executor.shutdown();
+        }
+        return succeeded;
+    }
+    
+    // sorted unaggregated edges of a single source type (if the edges are partitioned by type)
+    private static String sortedPartitionFileName(int type) {
+        return tmpfolder + "sorted_unaggregated_" + setNames[type] + ".bin";
+    }
+    
+    // number of edge records in the given files
+    private static long recordCount(List<File> files) throws Exception {
+        long records = 0;
+        for (File f : files) {
+            records += EdgeRecordReader.countRecords(f);
+        }
+        return records;
+    }
+    
+    /* Sum up the weights of identical edges (which are adjacent in the sorted file) and write each edge in
+     * both directions to the temporary edge files of its node types. If the edges are partitioned by type,
+     * each partition already contains both directions and is aggregated directly into the sorted edge file of
+     * its type. If the edges are aggregated while merging, the sorted runs are merged here and the merged edges
+     * are aggregated as they come out of the merge, without the sorted file.
+     */
+    public boolean aggregateEdgesAndSplitIntoIndividualFiles() {
+        if (partitionEdgesByType) {
+            return aggregatePartitions();
+        }
         System.out.println("Aggregating edgelist file and splitting into individual files");
+        aggregatedEdgeCounts = new long[nANNOTATIONS];
         
+        BufferedWriter[] out = new BufferedWriter[nANNOTATIONS];
+        boolean succeeded;
         try {
-            BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(sortedtmpfile), "UTF-8"));
-            
-            ArrayList<BufferedWriter> out = new ArrayList<BufferedWriter>();
             for (int i=0; i<nANNOTATIONS; i++) {
-                BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpfolder + "tmp_" + edgeFileNames[i]), "UTF-8"), bufferSize);
-                out.add(w);
+                OutputStream os = TemporaryFiles.create(new File(tmpfolder + "tmp_" + edgeFileNames[i]), compressTemporaryFiles, bufferSize);
+                out[i] = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), bufferSize);
             }
-            
-            long linecount = 0;
-            long nextpromille = count_unaggregatedEdges / 1000;
-            double promillecount = 0.1;
-            DecimalFormat dform = new DecimalFormat("##.#");
-            String line;
-            String[] splitline;
-            
-            // read the first line
-            line = bf.readLine();
-            linecount++;
-            splitline = line.split(sepChar);
-            char sourceType = splitline[0].charAt(0);
-            char targetType = splitline[1].charAt(0);
-            int sourceId = Integer.parseInt(splitline[2]);
-            int targetId = Integer.parseInt(splitline[3]);
-            int weight_int = Integer.parseInt(splitline[4]);
-            
-            float weight;
-            if (targetType >= TER) {
-                weight = default_weight;
+            EdgeAggregator aggregator = new EdgeAggregator(out, true, aggregatedEdgeCounts);
+            if (aggregateWhileMerging) {
+                List<File> runs = sortedRuns().files();
+                System.out.println("Merging and aggregating " + runs.size() + " runs with " + recordCount(runs) + " edge records.");
+                File tempFileStore = createSortingDirectory();
+                succeeded = mergeAndAggregate(runs, aggregator, tempFileStore, maxTempFiles, true);
+                tempFileStore.delete();
             } else {
-                weight = weightFunctionExponential(weight_int);
+                succeeded = mergeAndAggregate(Collections.singletonList(new File(sortedtmpfile)), aggregator, null, 2, true);
             }
-            
-            /* Read all following edges (which are sorted) and decide:
-             * a) if it is the same edge: aggregate with active edge
-             * b) if it is a different edge, write to file and set new edge as active
-             */
-            while ((line = bf.readLine()) != null) {
-                if (++linecount == nextpromille) {
-                    nextpromille += count_unaggregatedEdges / 1000;
-                    promillecount += 0.1;
-                    System.out.print("\rRead " + dform.format(promillecount) + "% of unaggregated edges.   ");
-                }
-                
-                splitline = line.split(sepChar);
-                char n1 = splitline[0].charAt(0);
-                char n2 = splitline[1].charAt(0);
-                int n3 = Integer.parseInt(splitline[2]);
-                int n4 = Integer.parseInt(splitline[3]);
-                weight_int = Integer.parseInt(splitline[4]);
-                
-                float weight2;
-                if (n2 >= TER) {
-                    weight2 = default_weight;
-                } else {
-                    weight2 = weightFunctionExponential(weight_int);
-                }
-                
-                if (sourceType==n1 && targetType==n2 && sourceId==n3 && targetId==n4) {
-                    weight += weight2;
-                } else {
-                    if (targetType >= TER) {
-                        out.get(sourceType).append(sourceType + sepChar + targetType + sepChar + sourceId + sepChar + targetId + sepChar + (int)weight + "\n");
-                        out.get(targetType).append(targetType + sepChar + sourceType + sepChar + targetId + sepChar + sourceId + sepChar + (int)weight + "\n");
+            for (int i=0; i<nANNOTATIONS; i++) {
+                out[i].close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        return succeeded;
+    }
+    
+    /* Aggregate the partition of each source type into the sorted edge file of the type (in parallel). If the
+     * edges are aggregated while merging, the runs of each partition are merged here.
+     */
+    private boolean aggregatePartitions() {
+        System.out.println("Aggregating the edges of each node type");
+        aggregatedEdgeCounts = new long[nANNOTATIONS];
+        final EdgeRunSet runs = sortedRuns();
+        final File tempFileStore = aggregateWhileMerging ? createSortingDirectory() : null;
+        int nParallel = Math.max(1, Math.min(nThreads, nANNOTATIONS));
+        final int maxOpenFiles = Math.max(2, maxTempFiles / nParallel);
+        ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int i=0; i<nANNOTATIONS; i++) {
+            final int type = i;
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    BufferedWriter[] out = new BufferedWriter[nANNOTATIONS];
+                    OutputStream os = TemporaryFiles.create(new File(tmpfolder + "tmp_sorted_" + edgeFileNames[type]), compressTemporaryFiles, bufferSize);
+                    out[type] = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), bufferSize);
+                    long[] counts = new long[nANNOTATIONS];
+                    EdgeAggregator aggregator = new EdgeAggregator(out, false, counts);
+                    boolean succeeded;
+                    if (aggregateWhileMerging) {
+                        succeeded = mergeAndAggregate(runs.files(type), aggregator, tempFileStore, maxOpenFiles, false);
                     } else {
-                        out.get(sourceType).append(sourceType + sepChar + targetType + sepChar + sourceId + sepChar + targetId + sepChar + df.format(weight) + "\n");
-                        out.get(targetType).append(targetType + sepChar + sourceType + sepChar + targetId + sepChar + sourceId + sepChar + df.format(weight) + "\n");
+                        succeeded = mergeAndAggregate(Collections.singletonList(new File(sortedPartitionFileName(type))), aggregator,
+                                                      null, 2, false);
                     }
-                    
-                    // increase edge counts
-                    aggregatedEdgeCounts[sourceType]++;
-                    aggregatedEdgeCounts[targetType]++;
-                    
-                    sourceType = n1;
-                    targetType = n2;
-                    sourceId = n3;
-                    targetId = n4;
-                    weight = weight2;
+                    out[type].close();
+                    aggregatedEdgeCounts[type] = counts[type];
+                    return succeeded;
                 }
+            });
+        }
+        boolean succeeded = runInParallel(tasks, nParallel);
+        if (tempFileStore != null) {
+            tempFileStore.delete();
+        }
+        return succeeded;
+    }
+    
+    /* Aggregates the merged unaggregated edges (see EdgeReducer). The records of each edge are passed one
+     * after the other:
+     * a) the first record of an edge becomes the active edge
+     * b) the records of the same edge are aggregated with the active edge
+     * c) once all records have been passed, the active edge is written to file
+     * A record with a count stands for count identical edges, whose weights are added one by one. Edges
+     * to terms, pages and sentences have integer weights, all others have exponentially decaying weights.
+     */
+    private static class EdgeAggregator implements EdgeReducer {
+        private BufferedWriter[] out;
+        private boolean bothDirections;
+        private long[] counts;
+        
+        // DecimalFormat is not thread-safe, so each aggregator formats the weights with its own copy
+        private DecimalFormat weightFormat = (DecimalFormat) df.clone();
+        
+        private char sourceType;
+        private char targetType;
+        private int sourceId;
+        private int targetId;
+        private float weight;
+        
+        EdgeAggregator(BufferedWriter[] out, boolean bothDirections, long[] counts) {
+            this.out = out;
+            this.bothDirections = bothDirections;
+            this.counts = counts;
+        }
+        
+        @Override
+        public void startEdge(long high, long low) {
+            sourceType = EdgeRecord.sourceType(high);
+            targetType = EdgeRecord.targetType(low);
+            sourceId = EdgeRecord.sourceId(high);
+            targetId = EdgeRecord.targetId(low);
+            float weight2 = recordWeight(low);
+            weight = weight2;
+            for (int c=1; c<EdgeRecord.count(low); c++) {
+                weight += weight2;
             }
-            System.out.println();
-            
-            // write last active edge
-            if (targetType >= TER) {
-                out.get(sourceType).append(sourceType + sepChar + targetType + sepChar + sourceId + sepChar + targetId + sepChar + (int)weight + "\n");
-                out.get(targetType).append(targetType + sepChar + sourceType + sepChar + targetId + sepChar + sourceId + sepChar + (int)weight + "\n");
-            } else {
-                out.get(sourceType).append(sourceType + sepChar + targetType + sepChar + sourceId + sepChar + targetId + sepChar + df.format(weight) + "\n");
-                out.get(targetType).append(targetType + sepChar + sourceType + sepChar + targetId + sepChar + sourceId + sepChar + df.format(weight) + "\n");
+        }
+        
+        @Override
+        public void addRecord(long low) {
+            float weight2 = recordWeight(low);
+            for (int c=0; c<EdgeRecord.count(low); c++) {
+                weight += weight2;
             }
-            
-            // increase edge counts
-            aggregatedEdgeCounts[sourceType]++;
-            aggregatedEdgeCounts[targetType]++;
-                            
-            bf.close();
-            for (int i=0; i<nANNOTATIONS; i++) {
-                out.get(i).close();
+        }
+        
+        @Override
+        public void endEdge() throws IOException {
+            writeAggregatedEdge(out, bothDirections, counts, weightFormat, sourceType, targetType, sourceId, targetId, weight);
+        }
+        
+        // weight of a single edge of the record
+        private float recordWeight(long low) {
+            if (Math.max(sourceType, targetType) >= TER) {
+                return default_weight;
             }
-            
-        } catch (Exception e) {
-            e.printStackTrace();
+            return weightFunctionExponential(EdgeRecord.distance(low));
         }
     }
     
-    public void sortIndividualEdgeFiles() {
+    private static void writeAggregatedEdge(BufferedWriter[] out, boolean bothDirections, long[] counts, DecimalFormat weightFormat,
+                                            char sourceType, char targetType, int sourceId, int targetId, float weight) throws IOException {
+        String w = (Math.max(sourceType, targetType) >= TER) ? Integer.toString((int) weight) : weightFormat.format(weight);
+        out[sourceType].append(sourceType + sepChar + targetType + sepChar + sourceId + sepChar + targetId + sepChar + w + "\n");
+        counts[sourceType]++;
+        if (bothDirections) {
+            out[targetType].append(targetType + sepChar + sourceType + sepChar + targetId + sepChar + sourceId + sepChar + w + "\n");
+            counts[targetType]++;
+        }
+    }
+    
+    public boolean sortIndividualEdgeFiles() {
+        if (partitionEdgesByType) {
+            System.out.println("The edges were partitioned by type, the individual edgelist files are already sorted.");
+            return true;
+        }
         System.out.println("Sorting individual edgelist files");
         
         // make sure that the temporary folder exists
@@ -531,6 +1174,11 @@ public class ParallelExtractNetworkFromMongo {
             }
         }
         
+        int maxSetSize = 0;
+        for (int i=0; i<nANNOTATIONS; i++) {
+            maxSetSize = Math.max(maxSetSize, setSizes[i]);
+        }
+        
         for (int i=0; i<nANNOTATIONS; i++) {
             
             System.out.println("Sorting edges for " + setNames[i]);
@@ -538,19 +1186,27 @@ public class ParallelExtractNetworkFromMongo {
             // compute number of lines per file
             int nLinesPerFile = (int) Math.ceil((double) aggregatedEdgeCounts[i] / (double) maxTempFiles);
             
-            // initialize sorter
-            ParallelDiskMergeSort dms = new ParallelDiskMergeSort(aggregatedEdgeCounts[i], nLinesPerFile, bufferSize, edgecomparator);
+            // initialize sorter (the runs are radix sorted by packed edge keys if the node IDs are small enough)
+            ParallelDiskMergeSort dms = new ParallelDiskMergeSort(aggregatedEdgeCounts[i], nLinesPerFile, bufferSize, edgecomparator, compressTemporaryFiles);
+            if (radixSortEdges && EdgeKey.fits(maxSetSize)) {
+                dms.setKeyExtractor(new EdgeKey(maxSetSize, sepChar));
+            }
+            dms.setMemoryBudget(sortPipelineMemory);
+            dms.setMergeThreads(parallelMerge ? nThreads : 1);
             
             String inputfile = tmpfolder + "tmp_" + edgeFileNames[i];
             String outputfile = tmpfolder + "tmp_sorted_" + edgeFileNames[i];
-            dms.sortFile(new File(inputfile), new File(outputfile), tempFileStore);
+            if (!dms.sortFile(new File(inputfile), new File(outputfile), tempFileStore)) {
+                return false;
+            }
         }
         
         // remove the temporary folder
         tempFileStore.delete();
+        return true;
     }
     
-    public void finalizeNodesAndEdges() {
+    public boolean finalizeNodesAndEdges() {
         
         try {
             // allocate memory for the degree sequences of nodes
@@ -566,7 +1222,7 @@ public class ParallelExtractNetworkFromMongo {
                 System.out.println("Processing edges for " + setNames[type]);
                 
                 String inFile = tmpfolder + "tmp_sorted_" + edgeFileNames[type];
-                BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), "UTF-8"));
+                BufferedReader bf = new BufferedReader(new InputStreamReader(TemporaryFiles.open(new File(inFile), bufferSize), "UTF-8"));
                 String outFile = outfolder + edgeFileNames[type];
                 BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile), "UTF-8"), bufferSize);
                 
@@ -636,7 +1292,7 @@ public class ParallelExtractNetworkFromMongo {
                 int emptyNameCount = 0;
                 System.out.print("Rewriting nodes for " + setNames[i] + ".");
                 String[] nodeNames = new String[setSizes[i]];
-                String inFile = tmpfolder + "tmp_" + vertexFileNames[i];
+                String inFile = temporaryNodeFileName(i);
                 BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), "UTF-8"));
                 String line;
                 while ((line = bf.readLine()) != null) {
@@ -666,40 +1322,61 @@ public class ParallelExtractNetworkFromMongo {
             }
         } catch (Exception e) {
             e.printStackTrace();
+            return false;
         }
-            
+        return true;
     }
     
     
     public static void main(String[] args) {
         try {
             
-            // make sure that working folders are up and clean
-            setUpFolders();
+            // continue from the checkpoint of a previous run or make sure that working folders are up and clean
+            Checkpoint checkpoint = null;
+            if (useCheckpoints && resumeFromCheckpoint && new File(checkpointFileName).exists()) {
+                System.out.println("Resuming construction from checkpoint.");
+                checkpoint = new Checkpoint(checkpointFileName);
+            } else {
+                setUpFolders();
+                if (useCheckpoints) {
+                    checkpoint = new Checkpoint(checkpointFileName);
+                }
+            }
             
             // read the input data from DB and write temporary edge information of unaggregated edge lists
-            ParallelExtractNetworkFromMongo enfm = new ParallelExtractNetworkFromMongo();
+            ParallelExtractNetworkFromMongo enfm = new ParallelExtractNetworkFromMongo(checkpoint);
+            if (!enfm.completeStage(Checkpoint.stageExtraction, enfm.extractionSucceeded)) return;
             System.gc();
             
             // write temporary node information to clear memory
-            enfm.writeTemporaryNodesToFiles();
-            System.gc();
+            if (!enfm.isCompleted(Checkpoint.stageNodes)) {
+                if (!enfm.completeStage(Checkpoint.stageNodes, enfm.writeTemporaryNodesToFiles())) return;
+                System.gc();
+            }
             
             // sort the list of unaggregated (duplicate) edge lists with external merge sort
-            enfm.sortUnaggregatedEdgelistExternally();
-            System.gc();
+            if (!enfm.isCompleted(Checkpoint.stageSorting)) {
+                if (!enfm.completeStage(Checkpoint.stageSorting, enfm.sortUnaggregatedEdgelistExternally())) return;
+                System.gc();
+            }
             
             // aggregate the edge lists to remove parallel edges and split them into individual files
             // NOTE: reciprocal edges are introduced in this step (i.e. edges appear in two files!)
-            enfm.aggregateEdgesAndSplitIntoIndividualFiles();
-            System.gc();
+            if (!enfm.isCompleted(Checkpoint.stageAggregation)) {
+                if (!enfm.completeStage(Checkpoint.stageAggregation, enfm.aggregateEdgesAndSplitIntoIndividualFiles())) return;
+                System.gc();
+            }
             
             // sort the aggregated edge lists to prepare for writing them to adjacency lists
-            enfm.sortIndividualEdgeFiles();
-            System.gc();
+            if (!enfm.isCompleted(Checkpoint.stageSplitSorting)) {
+                if (!enfm.completeStage(Checkpoint.stageSplitSorting, enfm.sortIndividualEdgeFiles())) return;
+                System.gc();
+            }
             
             // compute degrees, then finalize nodes and edges
-            enfm.finalizeNodesAndEdges();
+            if (!enfm.isCompleted(Checkpoint.stageFinalization)) {
+                if (!enfm.completeStage(Checkpoint.stageFinalization, enfm.finalizeNodesAndEdges())) return;
+            }
             
             System.out.println("Done.");
             
@@ -0,0 +1,81 @@
+package construction;
+
+import static settings.LOADmodelSettings.*;
+import static settings.SystemSettings.*;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IDs for nodes that occur exactly once during the extraction (pages and sentences). Since such a node is never
+ * looked up a second time, no dictionary is needed: each call draws a range of consecutive IDs from an atomic
+ * counter, and the names of the nodes are appended to a side file in the format of the temporary node files
+ * (ID and name per line, not ordered by ID).
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class SequentialNodeSet {
+
+    private String filename;
+    private AtomicInteger nextID;
+    private FileOutputStream out;
+    private BufferedWriter writer;
+
+    // new nodes get the IDs firstID, firstID+1, ...
+    public SequentialNodeSet(String filename, int firstID) {
+        this.filename = filename;
+        nextID = new AtomicInteger(firstID);
+    }
+
+    // start writing the side file (a resumed extraction continues the existing file)
+    public void open(boolean append) throws IOException {
+        out = new FileOutputStream(filename, append);
+        writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), bufferSize);
+    }
+
+    // assigns consecutive IDs to the given values and returns the first one
+    public int add(ArrayList<String> values) throws IOException {
+        int first = nextID.getAndAdd(values.size());
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<values.size(); i++) {
+            sb.append(first + i).append(sepChar).append(values.get(i)).append('\n');
+        }
+        synchronized (this) {
+            writer.append(sb);
+        }
+        return first;
+    }
+
+    // force the side file to disk and return its length
+    public synchronized long sync() throws IOException {
+        writer.flush();
+        out.getFD().sync();
+        return out.getChannel().size();
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    // the ID that is assigned to the next new node
+    public int nextID() {
+        return nextID.get();
+    }
+
+    public void setNextID(int id) {
+        nextID.set(id);
+    }
+}
@@ -0,0 +1,156 @@
+package externalsort;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a temporary file that was written by BlockCompressedOutputStream. While the current block is read,
+ * the next block is read and decompressed by a background thread.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class BlockCompressedInputStream extends InputStream {
+
+    private FileInputStream in;
+    private FileChannel channel;
+    private byte[] block = new byte[0];
+    private int position;
+    private int length;
+    private Future<byte[]> next;
+    private boolean ended;
+    private long trailer;
+
+    public BlockCompressedInputStream(String filename) throws IOException {
+        this(filename, 0);
+    }
+
+    // start reading at the given position, which must be the start of the file or of a block (see endBlock)
+    public BlockCompressedInputStream(String filename, long position) throws IOException {
+        in = new FileInputStream(filename);
+        channel = in.getChannel();
+        if (position > 0) {
+            channel.position(position);
+        } else if (readBuffer(4).getInt() != TemporaryFiles.MAGIC) {
+            in.close();
+            throw new IOException("Not a compressed temporary file: " + filename);
+        }
+        prefetch();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == length && !nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == length && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, length - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    // switch to the prefetched block and start reading the following one
+    private boolean nextBlock() throws IOException {
+        if (next == null) {
+            return false;
+        }
+        block = TemporaryFiles.await(next);
+        position = 0;
+        length = block.length;
+        next = null;
+        prefetch();
+        return length > 0 || nextBlock();
+    }
+
+    private void prefetch() {
+        if (ended) {
+            return;
+        }
+        next = TemporaryFiles.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return readBlock();
+            }
+        });
+    }
+
+    // read and decompress the next block (the end marker is returned as an empty block)
+    private byte[] readBlock() throws IOException {
+        ByteBuffer header = readBuffer(4);
+        int rawLength = header.getInt();
+        if (rawLength == 0) {
+            trailer = readBuffer(8).getLong();
+            ended = true;
+            return new byte[0];
+        }
+        int compressedLength = readBuffer(4).getInt();
+        ByteBuffer compressed = readBuffer(compressedLength);
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed.array(), 0, compressedLength);
+        byte[] data = new byte[rawLength];
+        try {
+            int n = 0;
+            while (n < rawLength) {
+                int inflated = inflater.inflate(data, n, rawLength - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Corrupt block in compressed temporary file");
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    private ByteBuffer readBuffer(int n) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(n);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated compressed temporary file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // the number that was stored at the end of the file (available once the end was reached)
+    public long getTrailer() {
+        return trailer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (next != null) {
+            try {
+                TemporaryFiles.await(next);
+            } catch (IOException e) {
+                // the file is closed anyway
+            }
+            next = null;
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,172 @@
+package externalsort;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a temporary file as a sequence of independently compressed blocks (fast deflate). A full block is
+ * compressed and written by a background thread while the next block is filled, so that compression and
+ * I/O overlap with the work of the writing thread. File format (see TemporaryFiles):
+ *   magic (4 bytes), blocks of [raw length (int), compressed length (int), compressed bytes],
+ *   end marker (int 0), trailer (long)
+ * The trailer is a number that the user of the stream can set (e.g. the number of records in the file).
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+
+    private FileOutputStream out;
+    private FileChannel channel;
+    private byte[] block;
+    private byte[] spare;
+    private int position;
+    private Future<Void> pending;
+    private long trailer;
+    private long rawBytes;
+    private long compressedBytes;
+    private boolean closed;
+
+    public BlockCompressedOutputStream(String filename, int blockSize) throws IOException {
+        out = new FileOutputStream(filename);
+        channel = out.getChannel();
+        block = new byte[Math.max(1024, blockSize)];
+        spare = new byte[block.length];
+        ByteBuffer header = ByteBuffer.allocate(4);
+        header.putInt(TemporaryFiles.MAGIC);
+        header.flip();
+        writeFully(header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == block.length) {
+            writeBlock();
+        }
+        block[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (position == block.length) {
+                writeBlock();
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(b, off, block, position, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // hand the current block to a background thread and continue with the spare block
+    private void writeBlock() throws IOException {
+        awaitPending();
+        final byte[] data = block;
+        final int length = position;
+        pending = TemporaryFiles.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                compressAndWrite(data, length);
+                return null;
+            }
+        });
+        block = spare;
+        spare = data;
+        position = 0;
+    }
+
+    private void compressAndWrite(byte[] data, int length) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        byte[] compressed = new byte[length + length / 16 + 64];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == compressed.length) {
+                byte[] grown = new byte[2 * compressed.length];
+                System.arraycopy(compressed, 0, grown, 0, n);
+                compressed = grown;
+            }
+            n += deflater.deflate(compressed, n, compressed.length - n);
+        }
+        deflater.end();
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(length);
+        header.putInt(n);
+        header.flip();
+        writeFully(header);
+        writeFully(ByteBuffer.wrap(compressed, 0, n));
+        rawBytes += length;
+        compressedBytes += n + 8;
+    }
+
+    /* End the current block and return the position in the file at which the next block starts. A reader
+     * can start reading at this position (see TemporaryFiles.open). Waits until all blocks were written.
+     */
+    public long endBlock() throws IOException {
+        if (position > 0) {
+            writeBlock();
+        }
+        awaitPending();
+        return channel.position();
+    }
+
+    private void awaitPending() throws IOException {
+        if (pending != null) {
+            TemporaryFiles.await(pending);
+            pending = null;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // the number that is stored at the end of the file
+    public void setTrailer(long trailer) {
+        this.trailer = trailer;
+    }
+
+    // number of bytes that were written to the stream (available after close)
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    // number of bytes in the file (available after close)
+    public long getCompressedBytes() {
+        return compressedBytes + 16;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (position > 0) {
+                writeBlock();
+            }
+            awaitPending();
+            ByteBuffer end = ByteBuffer.allocate(12);
+            end.putInt(0);
+            end.putLong(trailer);
+            end.flip();
+            writeFully(end);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package externalsort;
+
+/**
+ * Combines identical edges (same nodes and distance, see EdgeRecord) before they are written, so that an edge
+ * that occurs many times is stored as a single record with a count. The edges are kept in an open addressing
+ * hash table of primitive arrays with a fixed capacity that is derived from a memory budget. Once the table is
+ * full, add() returns false and the edges have to be moved to a run with drainTo().
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeCombiner {
+
+    // memory per slot: two longs for the edge and an int for the count
+    private static final int bytesPerSlot = 20;
+    private static final float loadFactor = 0.75f;
+
+    private long[] edges;
+    private int[] counts;
+    private int mask;
+    private int size;
+    private int maxSize;
+
+    // number of edges that were added and number of distinct edges that were moved to runs
+    private long addedEdges;
+    private long drainedEdges;
+
+    public EdgeCombiner(long memoryBudget) {
+        int capacity = Integer.highestOneBit((int) Math.max(16, Math.min(1 << 30, memoryBudget / bytesPerSlot)));
+        edges = new long[2 * capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+        maxSize = (int) (capacity * loadFactor);
+    }
+
+    // add an edge. Returns false if the table is full (the edge was not added).
+    public boolean add(long high, long low) {
+        long key = EdgeRecord.key(low);
+        int slot = hash(high, key) & mask;
+        while (counts[slot] != 0) {
+            if (edges[2 * slot] == high && edges[2 * slot + 1] == key) {
+                int count = counts[slot] + EdgeRecord.count(low);
+                if (count > EdgeRecord.MAX_COUNT) {
+                    break;
+                }
+                counts[slot] = count;
+                addedEdges++;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size >= maxSize || counts[slot] != 0) {
+            return false;
+        }
+        edges[2 * slot] = high;
+        edges[2 * slot + 1] = key;
+        counts[slot] = EdgeRecord.count(low);
+        size++;
+        addedEdges++;
+        return true;
+    }
+
+    // move all edges (with their counts) to the given buffer and empty the table
+    public void drainTo(EdgeRunBuffer run) {
+        run.ensureCapacity(run.size() + 2 * size);
+        for (int slot=0; slot<counts.length; slot++) {
+            if (counts[slot] != 0) {
+                run.add(edges[2 * slot]);
+                run.add(EdgeRecord.withCount(edges[2 * slot + 1], counts[slot]));
+                counts[slot] = 0;
+            }
+        }
+        drainedEdges += size;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getAddedEdges() {
+        return addedEdges;
+    }
+
+    public long getDrainedEdges() {
+        return drainedEdges;
+    }
+
+    private static int hash(long high, long key) {
+        long h = high * 0x9E3779B97F4A7C15L + key;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,79 @@
+package externalsort;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Packs the source type, source ID, target type and target ID of an edge into a single long, so that edges
+ * can be sorted by comparing (or radix sorting) primitive keys:
+ *   source type << (2 * idBits + 3) | source ID << (idBits + 3) | target type << idBits | target ID
+ * The keys are ordered in the same way as the edges by their source type, source ID, target type and target ID.
+ * Since types have 3 bits, all node IDs must have at most 28 bits (see fits). Edges in text format are lines
+ * of the form source type, target type, source ID, target ID, weight (separated by the given separator). As a
+ * key extractor (see ParallelDiskMergeSort.setKeyExtractor), an edge key returns the key of such a line.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeKey implements ToLongFunction<String> {
+
+    private static final int typeBits = 3;
+
+    private int idBits;
+    private long maxId;
+    private String separator;
+
+    // node IDs are smaller than nodeCount
+    public EdgeKey(int nodeCount, String separator) {
+        if (!fits(nodeCount)) {
+            throw new IllegalArgumentException("Node IDs up to " + nodeCount + " do not fit into an edge key");
+        }
+        idBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, nodeCount - 1)));
+        maxId = (1L << idBits) - 1;
+        this.separator = separator;
+    }
+
+    // true if the edges between nodes with IDs smaller than nodeCount can be packed into non-negative keys
+    public static boolean fits(int nodeCount) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(0, nodeCount - 1));
+        return 2 * (typeBits + bits) <= 63;
+    }
+
+    public long key(int sourceType, int sourceId, int targetType, int targetId) {
+        if (sourceId < 0 || sourceId > maxId || targetId < 0 || targetId > maxId) {
+            throw new IllegalArgumentException("Node ID out of range for the edge key: " + sourceId + ", " + targetId);
+        }
+        return ((long) sourceType << (2 * idBits + typeBits)) | ((long) sourceId << (idBits + typeBits))
+               | ((long) targetType << idBits) | targetId;
+    }
+
+    // the key of an edge in text format (the line is parsed without creating substrings)
+    @Override
+    public long applyAsLong(String line) {
+        int sep = separator.length();
+        int end1 = line.indexOf(separator);
+        int end2 = line.indexOf(separator, end1 + sep);
+        int end3 = line.indexOf(separator, end2 + sep);
+        int end4 = line.indexOf(separator, end3 + sep);
+        if (end1 != 1 || end2 != end1 + sep + 1 || end3 < 0) {
+            throw new IllegalArgumentException("Not an edge: " + line);
+        }
+        return key(line.charAt(0), parseId(line, end2 + sep, end3), line.charAt(end1 + sep),
+                   parseId(line, end3 + sep, (end4 < 0) ? line.length() : end4));
+    }
+
+    private static int parseId(String line, int from, int to) {
+        if (from >= to) {
+            throw new NumberFormatException("Empty node ID in: " + line);
+        }
+        long id = 0;
+        for (int i=from; i<to; i++) {
+            char c = line.charAt(i);
+            id = 10 * id + (c - '0');
+            if (c < '0' || c > '9' || id > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Invalid node ID in: " + line);
+            }
+        }
+        return (int) id;
+    }
+}
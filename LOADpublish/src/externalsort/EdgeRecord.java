@@ -0,0 +1,95 @@
+package externalsort;
+
+/**
+ * Binary format of the unaggregated edges of a LOAD graph. On disk, each edge is a fixed-width record of
+ * 11 bytes: source and target type (4 bits each), distance in sentences (1 byte, unsigned), count (1 byte,
+ * unsigned), source ID (4 bytes) and target ID (4 bytes). This is less than half the size of the same edge in
+ * text format once the node IDs have more than a few digits. The count is the number of identical edges that
+ * the record stands for (see EdgeCombiner). In memory, an edge is held as two longs:
+ *   high: source type << 32 | source ID
+ *   low:  target type << 56 | target ID << 24 | distance << 16 | count
+ * Comparing edges by high and then by low orders them by source type, source ID, target type, target ID and
+ * distance, which is the order that is needed for the aggregation of the edges.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public final class EdgeRecord {
+
+    // number of bytes of a record on disk
+    public static final int SIZE = 11;
+
+    // largest distance that can be stored
+    public static final int MAX_DISTANCE = 0xFF;
+
+    // largest count of a record in memory and on disk (larger counts are written as several records)
+    public static final int MAX_COUNT = 0xFFFF;
+    public static final int MAX_STORED_COUNT = 0xFF;
+
+    // mask of the part of low that identifies an edge (without the count)
+    private static final long keyMask = ~0xFFFFL;
+
+    private EdgeRecord() {}
+
+    public static long high(int sourceType, int sourceId) {
+        return ((long) sourceType << 32) | sourceId;
+    }
+
+    public static long low(int targetType, int targetId, int distance) {
+        return low(targetType, targetId, distance, 1);
+    }
+
+    public static long low(int targetType, int targetId, int distance, int count) {
+        return ((long) targetType << 56) | ((targetId & 0xFFFFFFFFL) << 24) | ((distance & 0xFF) << 16) | (count & 0xFFFF);
+    }
+
+    public static char sourceType(long high) {
+        return (char) (high >>> 32);
+    }
+
+    public static int sourceId(long high) {
+        return (int) high;
+    }
+
+    public static char targetType(long low) {
+        return (char) (low >>> 56);
+    }
+
+    public static int targetId(long low) {
+        return (int) (low >>> 24);
+    }
+
+    public static int distance(long low) {
+        return (int) ((low >>> 16) & 0xFF);
+    }
+
+    // target type and target ID (target type << 32 | target ID)
+    public static long target(long low) {
+        return low >>> 24;
+    }
+
+    public static long low(long target, int distance, int count) {
+        return (target << 24) | ((distance & 0xFF) << 16) | (count & 0xFFFF);
+    }
+
+    public static int count(long low) {
+        return (int) (low & 0xFFFF);
+    }
+
+    // the low part of an edge without its count (identical edges have the same key)
+    public static long key(long low) {
+        return low & keyMask;
+    }
+
+    // the low part of an edge with the given count
+    public static long withCount(long low, int count) {
+        return (low & keyMask) | (count & 0xFFFF);
+    }
+
+    // order of two edges (given by their high and low parts)
+    public static int compare(long high1, long low1, long high2, long low2) {
+        int rv = Long.compare(high1, high2);
+        return (rv != 0) ? rv : Long.compare(low1, low2);
+    }
+}
@@ -0,0 +1,133 @@
+package externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Merges sorted files of edges in the binary record format (see EdgeRecord) with a tournament tree of losers.
+ * Each inner node of the tree holds the run that lost the comparison at this node, and the overall winner is
+ * the smallest current edge of all runs. After the winner has been advanced to its next edge, only the path
+ * from its leaf to the root has to be replayed, which takes one comparison per level (a priority queue needs
+ * up to two per level to restore the heap). The current edges of the runs are cached in arrays of longs, and
+ * exhausted runs count as larger than all edges. Runs with equal edges are ordered by their position in the
+ * list of files, so the merge is stable.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeRecordLoserTree {
+
+    private EdgeRecordReader[] readers;
+    private long[] highs;
+    private long[] lows;
+    private boolean[] exhausted;
+    
+    // losers[1..k-1] are the losers at the inner nodes, losers[0] is the winner
+    private int[] losers;
+    private int k;
+
+    // open the files with the given buffer size each
+    public EdgeRecordLoserTree(List<File> files, int bufferSize) throws IOException {
+        k = files.size();
+        readers = new EdgeRecordReader[k];
+        highs = new long[k];
+        lows = new long[k];
+        exhausted = new boolean[k];
+        losers = new int[Math.max(1, k)];
+        try {
+            for (int i=0; i<k; i++) {
+                readers[i] = new EdgeRecordReader(files.get(i).getPath(), bufferSize);
+                read(i);
+            }
+        } catch (IOException e) {
+            closeReaders();
+            throw e;
+        }
+        if (k > 0) {
+            losers[0] = build(1);
+        }
+    }
+
+    // fill the inner nodes below the given node and return the winner of its subtree (leaves are at k..2k-1)
+    private int build(int node) {
+        if (node >= k) {
+            return node - k;
+        }
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (less(right, left)) {
+            losers[node] = left;
+            return right;
+        }
+        losers[node] = right;
+        return left;
+    }
+
+    // true if the current edge of run a comes before the current edge of run b
+    private boolean less(int a, int b) {
+        if (exhausted[a]) {
+            return false;
+        }
+        if (exhausted[b]) {
+            return true;
+        }
+        int rv = EdgeRecord.compare(highs[a], lows[a], highs[b], lows[b]);
+        return (rv != 0) ? rv < 0 : a < b;
+    }
+
+    // read the next edge of a run (or mark it as exhausted and close it)
+    private void read(int run) throws IOException {
+        if (readers[run].next()) {
+            highs[run] = readers[run].high();
+            lows[run] = readers[run].low();
+        } else {
+            exhausted[run] = true;
+            readers[run].close();
+            readers[run] = null;
+        }
+    }
+
+    // true if all edges have been merged
+    public boolean isEmpty() {
+        return k == 0 || exhausted[losers[0]];
+    }
+
+    // the smallest current edge of all runs
+    public long high() {
+        return highs[losers[0]];
+    }
+
+    public long low() {
+        return lows[losers[0]];
+    }
+
+    // move on to the next edge of the winning run and replay its path to the root
+    public void advance() throws IOException {
+        int winner = losers[0];
+        read(winner);
+        for (int node=(winner + k) >>> 1; node>=1; node>>>=1) {
+            if (less(losers[node], winner)) {
+                int loser = winner;
+                winner = losers[node];
+                losers[node] = loser;
+            }
+        }
+        losers[0] = winner;
+    }
+
+    // close the runs that have not been read to the end
+    public void close() throws IOException {
+        closeReaders();
+    }
+
+    private void closeReaders() throws IOException {
+        for (int i=0; i<k; i++) {
+            if (readers[i] != null) {
+                readers[i].close();
+                readers[i] = null;
+            }
+        }
+    }
+}
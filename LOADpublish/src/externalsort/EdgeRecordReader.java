@@ -0,0 +1,146 @@
+package externalsort;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads edges in the binary record format (see EdgeRecord) through a direct byte buffer. Block compressed
+ * files (see EdgeRecordWriter) are detected and decoded automatically. After next() has returned true, the
+ * current edge is available from high() and low().
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeRecordReader {
+
+    private FileInputStream in;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long high;
+    private long low;
+    
+    // compressed format
+    private BlockCompressedInputStream compressed;
+    private long previousTarget;
+
+    public EdgeRecordReader(String filename, int bufferSize) throws IOException {
+        if (TemporaryFiles.isCompressed(new File(filename))) {
+            compressed = new BlockCompressedInputStream(filename);
+            return;
+        }
+        in = new FileInputStream(filename);
+        channel = in.getChannel();
+        buffer = ByteBuffer.allocateDirect(Math.max(1, bufferSize / EdgeRecord.SIZE) * EdgeRecord.SIZE);
+        buffer.flip();
+    }
+
+    // number of edge records in a file (compressed or not)
+    public static long countRecords(File file) throws IOException {
+        if (TemporaryFiles.isCompressed(file)) {
+            return TemporaryFiles.trailer(file);
+        }
+        return file.length() / EdgeRecord.SIZE;
+    }
+
+    // advance to the next edge. Returns false at the end of the file.
+    public boolean next() throws IOException {
+        if (compressed != null) {
+            return nextEncoded();
+        }
+        if (buffer.remaining() < EdgeRecord.SIZE && !fill()) {
+            return false;
+        }
+        int types = buffer.get();
+        int sourceType = (types >> 4) & 0xF;
+        int targetType = types & 0xF;
+        int distance = buffer.get() & 0xFF;
+        int count = buffer.get() & 0xFF;
+        high = EdgeRecord.high(sourceType, buffer.getInt());
+        low = EdgeRecord.low(targetType, buffer.getInt(), distance, count);
+        return true;
+    }
+
+    // read the next edges into the buffer (keeping incomplete records). Returns false if no complete record is left.
+    private boolean fill() throws IOException {
+        buffer.compact();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read >= 0 && buffer.hasRemaining());
+        buffer.flip();
+        if (buffer.remaining() > 0 && buffer.remaining() < EdgeRecord.SIZE) {
+            throw new IOException("Truncated edge record at the end of the file");
+        }
+        return buffer.remaining() >= EdgeRecord.SIZE;
+    }
+
+    // decode the next edge of a compressed file (see EdgeRecordWriter)
+    private boolean nextEncoded() throws IOException {
+        int first = compressed.read();
+        if (first < 0) {
+            return false;
+        }
+        long sourceDelta = unzigzag(getVarint(first));
+        long target = unzigzag(getVarint(compressed.read())) + ((sourceDelta == 0) ? previousTarget : 0);
+        int distance = compressed.read();
+        int count = (int) getVarint(compressed.read());
+        if (distance < 0) {
+            throw new IOException("Truncated edge record at the end of the file");
+        }
+        high += sourceDelta;
+        low = EdgeRecord.low(target, distance, count);
+        previousTarget = target;
+        return true;
+    }
+
+    private long getVarint(int b) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (b < 0) {
+                throw new IOException("Truncated edge record at the end of the file");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            b = compressed.read();
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // reads up to n edges into an array (two longs per edge) and returns the number of edges that were read
+    public int read(long[] edges, int n) throws IOException {
+        int count = 0;
+        while (count < n && next()) {
+            edges[2 * count] = high;
+            edges[2 * count + 1] = low;
+            count++;
+        }
+        return count;
+    }
+
+    public long high() {
+        return high;
+    }
+
+    public long low() {
+        return low;
+    }
+
+    public void close() throws IOException {
+        if (compressed != null) {
+            compressed.close();
+            return;
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,350 @@
+package externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts a file of edges in the binary record format (see EdgeRecord) externally on disk by using merge-sort.
+ * Runs of maxRecordsPerRun edges are sorted in memory (in parallel) and written to temporary files, which are
+ * then merged into the output file. In memory, the edges are held in arrays of longs (two per edge), so that
+ * no objects are created per edge. Runs that were already sorted when they were written (see EdgeRunSet) can
+ * be merged directly with mergeRuns. The runs are merged with a tree of losers (see EdgeRecordLoserTree).
+ * Instead of writing the final merge to a file, the merged edges can also be passed to a reducer (see
+ * EdgeReducer), which combines the records of each edge as they come out of the merge. If compress is set, the
+ * temporary files and the output are block compressed (see EdgeRecordWriter), and the bytes saved by the
+ * compression are reported.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeRecordSort {
+
+    // runs with fewer edges are sorted by a single thread
+    private static final int sequentialThreshold = 1 << 13;
+
+    private long totalRecords;
+    private int maxRecordsPerRun;
+    private int bufferSize;
+    private boolean compress;
+    private boolean verbose = true;
+
+    public EdgeRecordSort(long totalRecords, int maxRecordsPerRun, int bufferSize) {
+        this(totalRecords, maxRecordsPerRun, bufferSize, false);
+    }
+
+    public EdgeRecordSort(long totalRecords, int maxRecordsPerRun, int bufferSize, boolean compress) {
+        this.totalRecords = totalRecords;
+        this.maxRecordsPerRun = Math.max(1, maxRecordsPerRun);
+        this.bufferSize = bufferSize;
+        this.compress = compress;
+    }
+
+    // show the progress of the sort (not useful if several sorts run at the same time)
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    // returns true if the file was sorted successfully
+    public boolean sortFile(File inputFile, File outputFile, File tempFileDir) {
+        try {
+
+            // read input file and sort into smaller files
+            List<File> files = sortInRuns(inputFile, tempFileDir);
+            reportSizes("Sorted runs", files);
+
+            // merge small sorted files into big sorted file
+            mergeSortedFiles(files, outputFile);
+            reportSizes("Sorted output", Collections.singletonList(outputFile));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /* Merge runs that are already sorted into the output file. The runs are kept. If there are more than
+     * maxOpenFiles runs, groups of runs are first merged into temporary files, so that no more than
+     * maxOpenFiles files are open at the same time.
+     */
+    public boolean mergeRuns(List<File> runs, File outputFile, File tempFileDir, int maxOpenFiles) {
+        return mergeRuns(runs, outputFile, null, tempFileDir, maxOpenFiles);
+    }
+
+    /* Merge runs that are already sorted and pass the edges of the final merge to the reducer, grouped by edge
+     * (see EdgeReducer), instead of writing them to a file. The runs are kept.
+     */
+    public boolean mergeRuns(List<File> runs, EdgeReducer reducer, File tempFileDir, int maxOpenFiles) {
+        return mergeRuns(runs, null, reducer, tempFileDir, maxOpenFiles);
+    }
+
+    private boolean mergeRuns(List<File> runs, File outputFile, EdgeReducer reducer, File tempFileDir, int maxOpenFiles) {
+        maxOpenFiles = Math.max(2, maxOpenFiles);
+        try {
+            reportSizes("Runs", runs);
+            List<File> files = new ArrayList<File>(runs);
+            List<File> temporary = new ArrayList<File>();
+            int pass = 0;
+            while (files.size() > maxOpenFiles) {
+                pass++;
+                List<File> merged = new ArrayList<File>();
+                for (int start=0; start<files.size(); start+=maxOpenFiles) {
+                    if (verbose) {
+                        System.out.print("\rIntermediate merge pass " + pass + ": group " + (start / maxOpenFiles + 1) + "/"
+                                         + ((files.size() + maxOpenFiles - 1) / maxOpenFiles) + "     ");
+                    }
+                    List<File> group = files.subList(start, Math.min(files.size(), start + maxOpenFiles));
+                    File f = File.createTempFile("mergeRuns", "flatfile", tempFileDir);
+                    f.deleteOnExit();
+                    mergeFiles(group, f, false);
+                    merged.add(f);
+                }
+                if (verbose) {
+                    System.out.println();
+                }
+                
+                // delete the intermediate files of the previous pass (but never the original runs)
+                for (File f : files) {
+                    if (temporary.contains(f)) {
+                        f.delete();
+                    }
+                }
+                temporary = merged;
+                files = merged;
+            }
+            if (reducer != null) {
+                reduceFiles(files, reducer);
+            } else {
+                mergeFiles(files, outputFile, true);
+            }
+            for (File f : temporary) {
+                f.delete();
+            }
+            if (outputFile != null) {
+                reportSizes("Merged output", Collections.singletonList(outputFile));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    // split the input into sorted runs
+    private List<File> sortInRuns(File inputFile, File tempFileDir) throws IOException {
+        int nFiles = (int) Math.ceil((double) totalRecords / maxRecordsPerRun);
+        List<File> files = new ArrayList<File>();
+        long[] records = new long[2 * (int) Math.min(maxRecordsPerRun, Math.max(1, totalRecords))];
+        long[] buffer = new long[records.length];
+
+        EdgeRecordReader reader = new EdgeRecordReader(inputFile.getPath(), bufferSize);
+        try {
+            int currentfile = 0;
+            int n;
+            while ((n = reader.read(records, records.length / 2)) > 0) {
+                currentfile++;
+
+                System.out.print("\rWorking on temporary file " + currentfile + "/" + nFiles + " (sorting)     ");
+                ForkJoinPool.commonPool().invoke(new SortTask(records, buffer, 0, n));
+
+                File run = File.createTempFile("sortInBatch", "flatfile", tempFileDir);
+                run.deleteOnExit();
+                EdgeRecordWriter writer = new EdgeRecordWriter(run.getPath(), false, bufferSize, compress);
+                writer.write(records, 0, n);
+                writer.close();
+                files.add(run);
+            }
+        } finally {
+            reader.close();
+            System.out.println();
+        }
+        return files;
+    }
+
+    // merge the sorted runs into the output file and delete them
+    private void mergeSortedFiles(List<File> files, File outputFile) throws IOException {
+        mergeFiles(files, outputFile, true);
+
+        // clean up temporary files
+        for (File f : files) {
+            f.delete();
+        }
+    }
+
+    // merge sorted files into the output file (the progress is reported for the final merge only)
+    private void mergeFiles(List<File> files, File outputFile, boolean report) throws IOException {
+        EdgeRecordLoserTree tree = new EdgeRecordLoserTree(files, runBufferSize(files));
+        EdgeRecordWriter writer = null;
+        try {
+            writer = new EdgeRecordWriter(outputFile.getPath(), false, bufferSize, compress);
+            long nextpercent = totalRecords / 100;
+            int percentcount = 0;
+            long currentRecord = 0;
+
+            while (!tree.isEmpty()) {
+                writer.write(tree.high(), tree.low());
+
+                if (++currentRecord == nextpercent && report && verbose) {
+                    nextpercent += totalRecords / 100;
+                    percentcount++;
+                    System.out.print("\rMerged " + percentcount + "% of lines.      ");
+                }
+                tree.advance();
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+            tree.close();
+            if (report && verbose) {
+                System.out.println();
+            }
+        }
+    }
+
+    // merge sorted files and pass the records of each edge (same source and target) to the reducer
+    private void reduceFiles(List<File> files, EdgeReducer reducer) throws IOException {
+        EdgeRecordLoserTree tree = new EdgeRecordLoserTree(files, runBufferSize(files));
+        try {
+            long nextpercent = totalRecords / 100;
+            int percentcount = 0;
+            long currentRecord = 0;
+            
+            long high = 0;
+            long target = 0;
+            boolean active = false;
+            while (!tree.isEmpty()) {
+                long low = tree.low();
+                if (active && tree.high() == high && EdgeRecord.target(low) == target) {
+                    reducer.addRecord(low);
+                } else {
+                    if (active) {
+                        reducer.endEdge();
+                    }
+                    high = tree.high();
+                    target = EdgeRecord.target(low);
+                    reducer.startEdge(high, low);
+                    active = true;
+                }
+
+                if (++currentRecord == nextpercent && verbose) {
+                    nextpercent += totalRecords / 100;
+                    percentcount++;
+                    System.out.print("\rMerged and reduced " + percentcount + "% of lines.      ");
+                }
+                tree.advance();
+            }
+            if (active) {
+                reducer.endEdge();
+            }
+        } finally {
+            tree.close();
+            if (verbose) {
+                System.out.println();
+            }
+        }
+    }
+
+    // each run is read with a share of the buffer
+    private int runBufferSize(List<File> files) {
+        return Math.max(EdgeRecord.SIZE * 1024, bufferSize / Math.max(1, files.size()));
+    }
+
+    // print the size of the files on disk and the bytes that were saved by the compression
+    private void reportSizes(String name, List<File> files) throws IOException {
+        long stored = 0;
+        long raw = 0;
+        for (File f : files) {
+            stored += f.length();
+            raw += EdgeRecordReader.countRecords(f) * EdgeRecord.SIZE;
+        }
+        if (stored != raw) {
+            System.out.println(name + ": " + stored + " bytes on disk, " + raw + " bytes uncompressed ("
+                               + TemporaryFiles.savings(raw, stored) + " saved).");
+        }
+    }
+
+    // sort the edges [0, n) of an array with two longs per edge in the current thread (see SortTask)
+    public static void sort(long[] a, long[] buffer, int n) {
+        sort(a, buffer, 0, n);
+    }
+
+    /* Merge sort of the edges [from, to) of an array with two longs per edge. The halves of large ranges are
+     * sorted in parallel. The buffer must have the same length as the array.
+     */
+    private static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private long[] a;
+        private long[] buffer;
+        private int from;
+        private int to;
+
+        SortTask(long[] a, long[] buffer, int from, int to) {
+            this.a = a;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= sequentialThreshold) {
+                sort(a, buffer, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SortTask(a, buffer, from, mid), new SortTask(a, buffer, mid, to));
+                merge(a, buffer, from, mid, to);
+            }
+        }
+    }
+
+    private static void sort(long[] a, long[] buffer, int from, int to) {
+        if (to - from <= 16) {
+            // insertion sort for small ranges
+            for (int i=from+1; i<to; i++) {
+                long high = a[2 * i];
+                long low = a[2 * i + 1];
+                int j = i - 1;
+                while (j >= from && EdgeRecord.compare(a[2 * j], a[2 * j + 1], high, low) > 0) {
+                    a[2 * j + 2] = a[2 * j];
+                    a[2 * j + 3] = a[2 * j + 1];
+                    j--;
+                }
+                a[2 * j + 2] = high;
+                a[2 * j + 3] = low;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(a, buffer, from, mid);
+        sort(a, buffer, mid, to);
+        merge(a, buffer, from, mid, to);
+    }
+
+    // merge the sorted ranges [from, mid) and [mid, to)
+    private static void merge(long[] a, long[] buffer, int from, int mid, int to) {
+        if (EdgeRecord.compare(a[2 * mid - 2], a[2 * mid - 1], a[2 * mid], a[2 * mid + 1]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, 2 * from, buffer, 2 * from, 2 * (to - from));
+        int i = from;
+        int j = mid;
+        for (int k=from; k<to; k++) {
+            if (j >= to || (i < mid && EdgeRecord.compare(buffer[2 * i], buffer[2 * i + 1], buffer[2 * j], buffer[2 * j + 1]) <= 0)) {
+                a[2 * k] = buffer[2 * i];
+                a[2 * k + 1] = buffer[2 * i + 1];
+                i++;
+            } else {
+                a[2 * k] = buffer[2 * j];
+                a[2 * k + 1] = buffer[2 * j + 1];
+                j++;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package externalsort;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// trove library imports
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Writes edges in the binary record format (see EdgeRecord) through a direct byte buffer. If compress is set,
+ * the file is block compressed instead (see BlockCompressedOutputStream). In this case, each edge is stored as
+ * the difference to the previous edge: the source as a varint delta and the target as a varint delta if the
+ * source did not change (which is mostly the case in sorted files), followed by the distance and the count.
+ * The number of edges is stored in the trailer of the file.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeRecordWriter {
+
+    private FileOutputStream out;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    
+    // compressed format
+    private BlockCompressedOutputStream compressed;
+    private byte[] encoded;
+    private int encodedLength;
+    private long previousHigh;
+    private long previousTarget;
+    private long records;
+
+    public EdgeRecordWriter(String filename, boolean append, int bufferSize) throws IOException {
+        this(filename, append, bufferSize, false);
+    }
+
+    public EdgeRecordWriter(String filename, boolean append, int bufferSize, boolean compress) throws IOException {
+        if (compress) {
+            if (append) {
+                throw new IllegalArgumentException("Compressed edge files cannot be appended");
+            }
+            compressed = new BlockCompressedOutputStream(filename, TemporaryFiles.blockSize);
+            encoded = new byte[1 << 16];
+            return;
+        }
+        out = new FileOutputStream(filename, append);
+        channel = out.getChannel();
+        buffer = ByteBuffer.allocateDirect(Math.max(1, bufferSize / EdgeRecord.SIZE) * EdgeRecord.SIZE);
+    }
+
+    // write an edge (counts that do not fit into a single record are split over several records)
+    public void write(long high, long low) throws IOException {
+        if (compressed != null) {
+            writeEncoded(high, low);
+            return;
+        }
+        int count = EdgeRecord.count(low);
+        while (count > EdgeRecord.MAX_STORED_COUNT) {
+            writeRecord(high, low, EdgeRecord.MAX_STORED_COUNT);
+            count -= EdgeRecord.MAX_STORED_COUNT;
+        }
+        writeRecord(high, low, count);
+    }
+
+    private void writeRecord(long high, long low, int count) throws IOException {
+        if (buffer.remaining() < EdgeRecord.SIZE) {
+            flush();
+        }
+        buffer.put((byte) (EdgeRecord.sourceType(high) << 4 | EdgeRecord.targetType(low)));
+        buffer.put((byte) EdgeRecord.distance(low));
+        buffer.put((byte) count);
+        buffer.putInt(EdgeRecord.sourceId(high));
+        buffer.putInt(EdgeRecord.targetId(low));
+    }
+
+    private void writeEncoded(long high, long low) throws IOException {
+        // at most 3 varints of 10 bytes and the distance
+        if (encoded.length - encodedLength < 32) {
+            flush();
+        }
+        long target = EdgeRecord.target(low);
+        long sourceDelta = high - previousHigh;
+        putVarint(zigzag(sourceDelta));
+        putVarint(zigzag(target - ((sourceDelta == 0) ? previousTarget : 0)));
+        encoded[encodedLength++] = (byte) EdgeRecord.distance(low);
+        putVarint(EdgeRecord.count(low));
+        previousHigh = high;
+        previousTarget = target;
+        records++;
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            encoded[encodedLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        encoded[encodedLength++] = (byte) value;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // write a list of edges (two longs per edge)
+    public void write(TLongArrayList edges) throws IOException {
+        for (int i=0; i<edges.size(); i+=2) {
+            write(edges.getQuick(i), edges.getQuick(i + 1));
+        }
+    }
+
+    // write the edges [from, to) of an array (two longs per edge)
+    public void write(long[] edges, int from, int to) throws IOException {
+        for (int i=from; i<to; i++) {
+            write(edges[2 * i], edges[2 * i + 1]);
+        }
+    }
+
+    public void flush() throws IOException {
+        if (compressed != null) {
+            compressed.write(encoded, 0, encodedLength);
+            encodedLength = 0;
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        flush();
+        if (compressed != null) {
+            compressed.setTrailer(records);
+            compressed.close();
+            return;
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,25 @@
+package externalsort;
+
+import java.io.IOException;
+
+/**
+ * Receives the edges of a merge of sorted runs (see EdgeRecordSort.mergeRuns) grouped by edge: all records with
+ * the same source type, source ID, target type and target ID are adjacent in the merge and are passed to the
+ * reducer as one group, in the order of their distances. Since the groups arrive in sorted order, a reducer can
+ * combine each group and write it on without an intermediate file of sorted edges.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public interface EdgeReducer {
+
+    // the first record of an edge (given by its high and low part, see EdgeRecord)
+    public void startEdge(long high, long low) throws IOException;
+
+    // another record of the same edge (the high part and the target are the same as for the first record)
+    public void addRecord(long low) throws IOException;
+
+    // all records of the edge have been passed
+    public void endEdge() throws IOException;
+}
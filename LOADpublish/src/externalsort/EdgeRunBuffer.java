@@ -0,0 +1,52 @@
+package externalsort;
+
+import java.io.IOException;
+
+// trove library imports
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * A list of edges (two longs per edge, see EdgeRecord) that can be sorted in place and written as a sorted run
+ * (see EdgeRunSet). Edges can be added to it directly, so that a worker does not need a second copy of its edges.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeRunBuffer extends TLongArrayList {
+
+    private static final long serialVersionUID = 1L;
+
+    // buffer for the merge sort (kept between runs)
+    private long[] scratch = new long[0];
+
+    public EdgeRunBuffer() {
+        super();
+    }
+
+    public EdgeRunBuffer(int capacityInEdges) {
+        super(2 * capacityInEdges);
+    }
+
+    public int edges() {
+        return size() / 2;
+    }
+
+    // sort the edges in the current thread
+    public void sortEdges() {
+        if (scratch.length < size()) {
+            scratch = new long[_data.length];
+        }
+        EdgeRecordSort.sort(_data, scratch, edges());
+    }
+
+    // write all edges (in the current order)
+    public void writeTo(EdgeRecordWriter writer) throws IOException {
+        writer.write(_data, 0, edges());
+    }
+
+    // write the edges [from, to)
+    public void writeTo(EdgeRecordWriter writer, int from, int to) throws IOException {
+        writer.write(_data, from, to);
+    }
+}
@@ -0,0 +1,181 @@
+package externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of sorted runs of edges in the binary record format (see EdgeRecord), stored as numbered files in a
+ * directory. Every thread that produces edges sorts them in its own EdgeRunBuffer and writes them as a new run,
+ * so that no lock is needed for writing. The runs are merged by EdgeRecordSort.mergeRuns without a separate
+ * run generation pass. Runs 0 to size()-1 are complete once all threads have written their last run.
+ * If the set has more than one partition, each run is split by the source type of the edges (which is the
+ * partition) into one file per partition, so that the partitions can be merged independently.
+ * Runs are not forced to disk when they are written. Before the runs are recorded in a checkpoint, sync()
+ * forces all runs that were written since the last checkpoint at once.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeRunSet {
+
+    private static final String runPrefix = "run_";
+    private static final String runSuffix = ".bin";
+
+    private File directory;
+    private boolean compress;
+    private int partitions;
+    private int bufferSize;
+    private AtomicInteger nextRun = new AtomicInteger(0);
+    private int syncedRuns = 0;
+    private AtomicLong writtenEdges = new AtomicLong(0);
+
+    public EdgeRunSet(String directory, boolean compress, int bufferSize) {
+        this(directory, compress, 1, bufferSize);
+    }
+
+    // if compress is true, the runs are block compressed (see EdgeRecordWriter). Edges with source type p belong
+    // to partition p.
+    public EdgeRunSet(String directory, boolean compress, int partitions, int bufferSize) {
+        this.directory = new File(directory);
+        this.compress = compress;
+        this.partitions = partitions;
+        this.bufferSize = bufferSize;
+    }
+
+    // start a new set of runs (existing runs in the directory are deleted)
+    public void clear() {
+        truncate(0);
+    }
+
+    // continue a set of runs of which the first count runs are complete (all later runs are deleted)
+    public void truncate(int count) {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        for (File f : directory.listFiles()) {
+            String name = f.getName();
+            if (name.startsWith(runPrefix) && name.endsWith(runSuffix)) {
+                String index = name.substring(runPrefix.length(), name.length() - runSuffix.length());
+                if (index.indexOf('_') >= 0) {
+                    index = index.substring(0, index.indexOf('_'));
+                }
+                try {
+                    if (Integer.parseInt(index) >= count) {
+                        f.delete();
+                    }
+                } catch (NumberFormatException e) {
+                    // not a run of this set
+                }
+            }
+        }
+        nextRun.set(count);
+        syncedRuns = count;
+    }
+
+    // sort the edges of the buffer, write them as a new run and clear the buffer
+    public void write(EdgeRunBuffer run) throws IOException {
+        run.sortEdges();
+        int index = nextRun.getAndIncrement();
+        if (partitions == 1) {
+            writeFile(file(index), run, 0, run.edges());
+        } else {
+            // the edges are sorted by source type, so each partition is a range of the buffer
+            int from = 0;
+            while (from < run.edges()) {
+                int partition = EdgeRecord.sourceType(run.getQuick(2 * from));
+                int to = from + 1;
+                while (to < run.edges() && EdgeRecord.sourceType(run.getQuick(2 * to)) == partition) {
+                    to++;
+                }
+                writeFile(file(index, partition), run, from, to);
+                from = to;
+            }
+        }
+        writtenEdges.addAndGet(run.edges());
+        run.resetQuick();
+    }
+
+    private void writeFile(File f, EdgeRunBuffer run, int from, int to) throws IOException {
+        EdgeRecordWriter writer = new EdgeRecordWriter(f.getPath(), false, bufferSize, compress);
+        run.writeTo(writer, from, to);
+        writer.close();
+    }
+
+    // force the runs that were written since the last call to disk (no run may be written at the same time)
+    public void sync() throws IOException {
+        int end = size();
+        for (int i=syncedRuns; i<end; i++) {
+            if (partitions == 1) {
+                TemporaryFiles.force(file(i));
+            } else {
+                for (int p=0; p<partitions; p++) {
+                    File f = file(i, p);
+                    if (f.exists()) {
+                        TemporaryFiles.force(f);
+                    }
+                }
+            }
+        }
+        syncedRuns = end;
+    }
+
+    public File file(int index) {
+        return new File(directory, runPrefix + index + runSuffix);
+    }
+
+    public File file(int index, int partition) {
+        return new File(directory, runPrefix + index + "_" + partition + runSuffix);
+    }
+
+    // number of runs
+    public int size() {
+        return nextRun.get();
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    // the files of all runs (of a set without partitions)
+    public List<File> files() {
+        List<File> files = new ArrayList<File>();
+        for (int i=0; i<size(); i++) {
+            files.add(file(i));
+        }
+        return files;
+    }
+
+    // the files of all runs that contain edges of the given partition
+    public List<File> files(int partition) {
+        List<File> files = new ArrayList<File>();
+        for (int i=0; i<size(); i++) {
+            File f = file(i, partition);
+            if (f.exists()) {
+                files.add(f);
+            }
+        }
+        return files;
+    }
+
+    // the files of all runs, of all partitions
+    public List<File> allFiles() {
+        if (partitions == 1) {
+            return files();
+        }
+        List<File> files = new ArrayList<File>();
+        for (int p=0; p<partitions; p++) {
+            files.addAll(files(p));
+        }
+        return files;
+    }
+
+    // number of edges that were written since the set was created
+    public long getWrittenEdges() {
+        return writtenEdges.get();
+    }
+}
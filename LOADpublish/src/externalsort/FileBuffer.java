@@ -2,16 +2,22 @@ package externalsort;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.function.ToLongFunction;
 
 /**
  * This is essentially a thin wrapper on top of a BufferedReader... which keeps
- * the last line in memory.
+ * the last line in memory. If a key extractor is given, the key of the last line
+ * is kept as well, so that it is computed only once per line.
  * 
  * @author Daniel Lemire
  */
 final class FileBuffer {
         public FileBuffer(BufferedReader r) throws IOException {
+                this(r, null);
+        }
+        public FileBuffer(BufferedReader r, ToLongFunction<String> keyExtractor) throws IOException {
                 this.fbr = r;
+                this.keyExtractor = keyExtractor;
                 reload();
         }
         public void close() throws IOException {
@@ -26,6 +32,11 @@ final class FileBuffer {
                 return this.cache;
         }
 
+        // the key of the last line (only if there is a key extractor)
+        public long peekKey() {
+                return this.key;
+        }
+
         public String pop() throws IOException {
                 String answer = peek().toString();// make a copy
                 reload();
@@ -34,9 +45,16 @@ final class FileBuffer {
 
         private void reload() throws IOException {
                 this.cache = this.fbr.readLine();
+                if (this.cache != null && this.keyExtractor != null) {
+                        this.key = this.keyExtractor.applyAsLong(this.cache);
+                }
         }
 
         public BufferedReader fbr;
 
         private String cache;
+
+        private ToLongFunction<String> keyExtractor;
+
+        private long key;
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package externalsort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel LSD radix sort of long keys, each with an int value (e.g. the position of the record
+ * that the key belongs to). The keys are sorted by digits of 11 bits, starting with the lowest digit. Each pass
+ * counts the digits of a chunk of the array per thread and then moves the elements of all chunks to their
+ * positions in parallel, so the sort is stable. Only the digits up to the highest bit that is set in any key are
+ * sorted, and passes in which all keys have the same digit are skipped. Negative keys are sorted in the order
+ * of signed longs by flipping the sign bit of all keys before and after the sort (which makes all 64 bits count).
+ * The threads of the common fork-join pool are used (as by Arrays.parallelSort).
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class LongRadixSort {
+
+    private static final int digitBits = 11;
+    private static final int radix = 1 << digitBits;
+    private static final int mask = radix - 1;
+
+    // arrays with fewer elements are sorted by a single thread
+    private static final int parallelThreshold = 1 << 16;
+
+    private LongRadixSort() {}
+
+    // sort the keys [0, n) and move the values along with them
+    public static void sort(long[] keys, int[] values, int n) {
+        sort(keys, values, n, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    public static void sort(long[] keys, int[] values, int n, int threads) {
+        long all = 0;
+        for (int i=0; i<n; i++) {
+            all |= keys[i];
+        }
+        boolean signed = all < 0;
+        if (signed) {
+            flipSignBits(keys, n);
+        }
+        int keyBits = 64 - Long.numberOfLeadingZeros(all);
+        int chunks = (n < parallelThreshold) ? 1 : Math.max(1, threads);
+
+        long[] keyBuffer = new long[n];
+        int[] valueBuffer = new int[n];
+        long[] sourceKeys = keys;
+        int[] sourceValues = values;
+        long[] targetKeys = keyBuffer;
+        int[] targetValues = valueBuffer;
+        int[][] counts = new int[chunks][radix];
+
+        for (int shift=0; shift<keyBits; shift+=digitBits) {
+            countDigits(sourceKeys, n, shift, counts);
+            if (!toOffsets(counts, n)) {
+                continue;
+            }
+            moveElements(sourceKeys, sourceValues, targetKeys, targetValues, n, shift, counts);
+            long[] k = sourceKeys;
+            sourceKeys = targetKeys;
+            targetKeys = k;
+            int[] v = sourceValues;
+            sourceValues = targetValues;
+            targetValues = v;
+        }
+        if (sourceKeys != keys) {
+            System.arraycopy(sourceKeys, 0, keys, 0, n);
+            System.arraycopy(sourceValues, 0, values, 0, n);
+        }
+        if (signed) {
+            flipSignBits(keys, n);
+        }
+    }
+
+    private static void flipSignBits(long[] keys, int n) {
+        for (int i=0; i<n; i++) {
+            keys[i] ^= Long.MIN_VALUE;
+        }
+    }
+
+    // count the digits of each chunk
+    private static void countDigits(final long[] keys, final int n, final int shift, final int[][] counts) {
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int c=0; c<counts.length; c++) {
+            final int chunk = c;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int[] count = counts[chunk];
+                    Arrays.fill(count, 0);
+                    int to = chunkEnd(n, counts.length, chunk);
+                    for (int i=chunkEnd(n, counts.length, chunk - 1); i<to; i++) {
+                        count[(int) (keys[i] >>> shift) & mask]++;
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+    }
+
+    /* Turn the counts into the first position of each digit in each chunk (the elements with the same digit
+     * are placed in the order of the chunks). Returns false if all keys have the same digit, in which case
+     * the pass can be skipped.
+     */
+    private static boolean toOffsets(int[][] counts, int n) {
+        int offset = 0;
+        for (int d=0; d<radix; d++) {
+            int digitCount = 0;
+            for (int[] count : counts) {
+                digitCount += count[d];
+            }
+            if (digitCount == n) {
+                return false;
+            }
+            for (int[] count : counts) {
+                int c = count[d];
+                count[d] = offset;
+                offset += c;
+            }
+        }
+        return true;
+    }
+
+    // move the elements of each chunk to the positions of their digits
+    private static void moveElements(final long[] keys, final int[] values, final long[] targetKeys, final int[] targetValues,
+                                     final int n, final int shift, final int[][] offsets) {
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int c=0; c<offsets.length; c++) {
+            final int chunk = c;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int[] offset = offsets[chunk];
+                    int to = chunkEnd(n, offsets.length, chunk);
+                    for (int i=chunkEnd(n, offsets.length, chunk - 1); i<to; i++) {
+                        int pos = offset[(int) (keys[i] >>> shift) & mask]++;
+                        targetKeys[pos] = keys[i];
+                        targetValues[pos] = values[i];
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+    }
+
+    // the end of a chunk (the end of chunk -1 is 0)
+    private static int chunkEnd(int n, int chunks, int chunk) {
+        return (int) ((long) n * (chunk + 1) / chunks);
+    }
+
+    // run the tasks (a single task in the current thread)
+    private static void run(ArrayList<Callable<Void>> tasks) {
+        try {
+            if (tasks.size() == 1) {
+                tasks.get(0).call();
+                return;
+            }
+            for (Future<Void> f : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -3,8 +3,6 @@ package externalsort;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -16,6 +14,17 @@ import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.ToLongFunction;
+
+// trove library imports
+import gnu.trove.list.array.TLongArrayList;
 
 /**
  * Sorts a file externally on disk by using merge-sort
@@ -33,6 +42,26 @@ public class ParallelDiskMergeSort {
     private int maxLinesPerTmpFile;
     private int writeBufferSize;
     private Comparator<String> stringComparator;
+    private boolean compress;
+    private ToLongFunction<String> keyExtractor;
+    private long memoryBudget;
+    private int mergeThreads = 1;
+    
+    // sample lines of the runs with the positions at which they start (for the parallel merge)
+    private ConcurrentHashMap<File, RunSamples> runSamples = new ConcurrentHashMap<File, RunSamples>();
+    
+    // number of lines of a run that are sampled for the parallel merge (and the minimum distance of samples)
+    private static final int samplesPerRun = 256;
+    private static final int minSampleDistance = 1024;
+    
+    // threads that sort and write the runs if run generation is overlapped (see setMemoryBudget). The sorts
+    // themselves are parallel, so two sorting threads are enough to keep the processors busy.
+    private static final int sortThreads = 2;
+    private static final int writeThreads = 2;
+    
+    // bytes written to the temporary files and the output before and after compression
+    private long rawBytes;
+    private long storedBytes;
     
     Comparator<FileBuffer> fileComparator = new Comparator<FileBuffer>() {
         @Override
@@ -41,6 +70,15 @@ public class ParallelDiskMergeSort {
         }
     };
     
+    // compares the cached keys of the lines (and only the lines with equal keys with the comparator)
+    Comparator<FileBuffer> fileKeyComparator = new Comparator<FileBuffer>() {
+        @Override
+        public int compare(FileBuffer i, FileBuffer j) {
+            int rv = Long.compare(i.peekKey(), j.peekKey());
+            return (rv != 0) ? rv : stringComparator.compare(i.peek(), j.peek());
+        }
+    };
+    
     Comparator<LinkedList<String>> listComparator = new Comparator<LinkedList<String>>() {
         @Override
         public int compare(LinkedList<String> i, LinkedList<String> j) {
@@ -50,10 +88,66 @@ public class ParallelDiskMergeSort {
     
     public ParallelDiskMergeSort(long totalLines, int maxLinesPerTmpFile, int writeBufferSize,
                                  Comparator<String> stringComparator) {
+        this(totalLines, maxLinesPerTmpFile, writeBufferSize, stringComparator, false);
+    }
+    
+    /* If compress is set, the temporary files and the output file are block compressed (see TemporaryFiles).
+     * The input file may be compressed or not.
+     */
+    public ParallelDiskMergeSort(long totalLines, int maxLinesPerTmpFile, int writeBufferSize,
+                                 Comparator<String> stringComparator, boolean compress) {
         this.totalLinesInFile = totalLines;
         this.maxLinesPerTmpFile = maxLinesPerTmpFile;
         this.writeBufferSize = writeBufferSize;
         this.stringComparator = stringComparator;
+        this.compress = compress;
+    }
+    
+    /* Compare the lines by a key that is computed once per line (e.g. the packed edge of a line, see EdgeKey)
+     * instead of with the comparator. The order of the keys must agree with the comparator: if the key of
+     * a line is smaller than the key of another line, the comparator must order it first. The runs are then
+     * sorted by a radix sort of the keys, and the merge compares the keys that are kept with the first line
+     * of each run. Lines with the same key are still ordered by the comparator, so that the order is the same
+     * as without keys.
+     */
+    public void setKeyExtractor(ToLongFunction<String> keyExtractor) {
+        this.keyExtractor = keyExtractor;
+    }
+    
+    /* Overlap the reading, sorting and writing of the runs: while a run is read, the previous runs are sorted
+     * and written by other threads. The memory budget (in bytes) bounds the estimated memory of the runs that
+     * have been read but not yet written. A run that is larger than the budget is only read while no other run
+     * is in flight. A budget of 0 reads, sorts and writes one run after the other.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+    
+    /* Merge the runs with several threads: the lines are split into as many ranges as there are threads by
+     * splitter lines that are chosen from samples of the runs (see RunSamples), and the ranges are merged
+     * concurrently into segments of the output, which are then concatenated. Each thread starts reading the
+     * runs at the sample before the start of its range.
+     */
+    public void setMergeThreads(int mergeThreads) {
+        this.mergeThreads = Math.max(1, mergeThreads);
+    }
+    
+    // count the bytes of a compressed file (after it was closed)
+    private synchronized void addSizes(File file, BlockCompressedOutputStream out) {
+        if (out != null) {
+            rawBytes += out.getRawBytes();
+            storedBytes += file.length();
+        }
+    }
+    
+    // print the bytes that were saved by the compression and reset the counters
+    private void reportSizes(String name) {
+        if (compress) {
+            System.out.println(name + ": " + storedBytes + " bytes on disk, " + rawBytes + " bytes uncompressed ("
+                               + TemporaryFiles.savings(rawBytes, storedBytes) + " saved).");
+        }
+        rawBytes = 0;
+        storedBytes = 0;
     }
     
     /**
@@ -65,19 +159,28 @@ public class ParallelDiskMergeSort {
      */
     private void mergeSortedFiles(List<File> files, File outputfile) throws IOException {
         
+        if (mergeThreads > 1 && files.size() > 1 && runSamples.keySet().containsAll(files)) {
+            List<String> splitters = chooseSplitters(files, mergeThreads);
+            if (!splitters.isEmpty()) {
+                mergeInParallel(files, outputfile, splitters);
+                return;
+            }
+        }
+        
         // create priority queue for keeping files sorted by their top most string
-        PriorityQueue<FileBuffer> pq = new PriorityQueue<FileBuffer>(11, fileComparator);
+        PriorityQueue<FileBuffer> pq = new PriorityQueue<FileBuffer>(11, (keyExtractor != null) ? fileKeyComparator : fileComparator);
         
         // add temporary input file buffers to priority queue
         for (File f : files) {
-            InputStream in = new FileInputStream(f);
+            InputStream in = TemporaryFiles.open(f, writeBufferSize);
             BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
-            FileBuffer bfb = new FileBuffer(br);
+            FileBuffer bfb = new FileBuffer(br, keyExtractor);
             pq.add(bfb);
         }
         
         // create output file buffer
-        BufferedWriter fbw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputfile), "UTF-8"), writeBufferSize);
+        OutputStream out = TemporaryFiles.create(outputfile, compress, writeBufferSize);
+        BufferedWriter fbw = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), writeBufferSize);
         
         // while there are still files that contain strings (lines), pop the lines and add them to output file
         try {
@@ -110,10 +213,13 @@ public class ParallelDiskMergeSort {
             }
             System.out.println();
         }
+        addSizes(outputfile, compress ? (BlockCompressedOutputStream) out : null);
+        reportSizes("Sorted output");
         
         // clean up temporary files
         for (File f : files) {
             f.delete();
+            runSamples.remove(f);
         }
     }
 
@@ -127,26 +233,79 @@ public class ParallelDiskMergeSort {
      * @throws IOException
      */
     private File sortAndSave(String[] fileContent, File tmpdirectory) throws IOException {
-        
-        Arrays.parallelSort(fileContent, stringComparator);
+        sort(fileContent);
+        return save(fileContent, tmpdirectory);
+    }
+    
+    private void sort(String[] fileContent) {
+        if (keyExtractor != null) {
+            sortByKeys(fileContent, keyExtractor, stringComparator);
+        } else {
+            Arrays.parallelSort(fileContent, stringComparator);
+        }
+    }
+    
+    // save sorted lines to a new temporary file
+    private File save(String[] fileContent, File tmpdirectory) throws IOException {
         
         // create a new temporary file and set it to delete itself after use
         File newtmpfile = File.createTempFile("sortInBatch", "flatfile", tmpdirectory);
         newtmpfile.deleteOnExit();
         
         // create a buffered writer for the file
-        OutputStream out = new FileOutputStream(newtmpfile);
+        OutputStream out = TemporaryFiles.create(newtmpfile, compress, writeBufferSize);
         BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), writeBufferSize);
         
-        for (String s : fileContent) {
-            bw.write(s);
+        // the positions of sample lines are only needed for the parallel merge
+        RunSamples samples = (mergeThreads > 1) ? new RunSamples() : null;
+        int sampleDistance = Math.max(minSampleDistance, fileContent.length / samplesPerRun);
+        
+        for (int i=0; i<fileContent.length; i++) {
+            if (samples != null && i % sampleDistance == 0) {
+                bw.flush();
+                samples.add(fileContent[i], TemporaryFiles.position(out));
+            }
+            bw.write(fileContent[i]);
             bw.newLine();
         }
         bw.close();
+        addSizes(newtmpfile, compress ? (BlockCompressedOutputStream) out : null);
+        if (samples != null) {
+            runSamples.put(newtmpfile, samples);
+        }
         
         return newtmpfile;
     }
 
+    /* Sort lines by their keys (see setKeyExtractor) with a radix sort (see LongRadixSort), so that the key
+     * of each line is computed only once. Lines with the same key are ordered by the comparator.
+     */
+    public static void sortByKeys(String[] lines, ToLongFunction<String> keyExtractor, Comparator<String> comparator) {
+        int n = lines.length;
+        long[] keys = new long[n];
+        int[] order = new int[n];
+        for (int i=0; i<n; i++) {
+            keys[i] = keyExtractor.applyAsLong(lines[i]);
+            order[i] = i;
+        }
+        LongRadixSort.sort(keys, order, n);
+        
+        String[] sorted = new String[n];
+        for (int i=0; i<n; i++) {
+            sorted[i] = lines[order[i]];
+        }
+        int from = 0;
+        for (int i=1; i<=n; i++) {
+            if (i == n || keys[i] != keys[from]) {
+                if (i - from > 1) {
+                    Arrays.sort(sorted, from, i, comparator);
+                }
+                from = i;
+            }
+        }
+        System.arraycopy(sorted, 0, lines, 0, n);
+    }
+
     /**
      * @param fbr            data source
      * @param tmpdirectory    location of the temporary files (set to null for
@@ -162,62 +321,326 @@ public class ParallelDiskMergeSort {
         
         // create a list for temporary files for splitting the main file
         List<File> files = new ArrayList<File>();
+        RunPipeline pipeline = (memoryBudget > 0) ? new RunPipeline(tmpdirectory) : null;
 
         // read the file, split it into temporary files and sort them
         try {
             
             String line = "";
             int currentfile = 0;
-            try {
-                while (remainingLines > 0) {
-                    
-                    if (arrayLength > remainingLines) {
-                        arrayLength = (int) remainingLines;
-                        remainingLines = 0;
-                    } else {
-                        remainingLines = remainingLines - arrayLength;
-                    }
-                    String[] fileContent = new String[arrayLength];
-                    
-                    currentfile++;
-                    System.out.print("\rWorking on temporary file " + currentfile + "/" + nFiles + " (reading)     ");    
-                    
-                    int lineCount = 0;
-                    while ((lineCount < arrayLength)) {
-                        line = fbr.readLine();
-                        fileContent[lineCount] = line;
-                        lineCount++;
-                    }
-                    
+            while (remainingLines > 0) {
+                
+                if (arrayLength > remainingLines) {
+                    arrayLength = (int) remainingLines;
+                    remainingLines = 0;
+                } else {
+                    remainingLines = remainingLines - arrayLength;
+                }
+                String[] fileContent = new String[arrayLength];
+                
+                currentfile++;
+                System.out.print("\rWorking on temporary file " + currentfile + "/" + nFiles + " (reading)     ");    
+                
+                int lineCount = 0;
+                while ((lineCount < arrayLength)) {
+                    line = fbr.readLine();
+                    fileContent[lineCount] = line;
+                    lineCount++;
+                }
+                
+                if (pipeline != null) {
+                    pipeline.submit(fileContent);
+                } else {
                     System.out.print("\rWorking on temporary file " + currentfile + "/" + nFiles + " (sorting)     ");
-                    
                     files.add(sortAndSave(fileContent, tmpdirectory));
                 }
-                
-            } catch (Exception e) {
-                e.printStackTrace();
+            }
+            if (pipeline != null) {
+                System.out.print("\rWaiting for the last temporary files to be sorted and written     ");
+                files.addAll(pipeline.finish());
             }
         } finally {
             fbr.close();
+            if (pipeline != null) {
+                pipeline.shutdown();
+            }
             System.out.println();
         }
         
         return files;
     }
     
-    public void sortFile(File inputFile, File outputFile, File tempFileDir) {
+    /* Sorts and writes the runs that the reading thread submits. Each run is sorted by one of the sort threads
+     * and then handed to one of the write threads, so that reading, sorting and writing overlap. The memory of
+     * the runs in flight is taken from a budget (in KB) when a run is submitted and returned when it is written.
+     */
+    private class RunPipeline {
+        private File tmpdirectory;
+        private ExecutorService sorters = Executors.newFixedThreadPool(sortThreads);
+        private ExecutorService writers = Executors.newFixedThreadPool(writeThreads);
+        private int budgetKB = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / 1024));
+        private Semaphore budget = new Semaphore(budgetKB);
+        private List<Future<Future<File>>> runs = new ArrayList<Future<Future<File>>>();
+        
+        public RunPipeline(File tmpdirectory) {
+            this.tmpdirectory = tmpdirectory;
+        }
+        
+        // blocks until the run fits into the memory budget
+        public void submit(final String[] lines) throws IOException {
+            final int kb = (int) Math.max(1, Math.min(budgetKB, estimateBytes(lines) / 1024));
+            try {
+                budget.acquire(kb);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for a run to be written", e);
+            }
+            runs.add(sorters.submit(new Callable<Future<File>>() {
+                @Override
+                public Future<File> call() {
+                    // the budget is returned here unless the run was handed to a writer (also on errors)
+                    boolean handedOver = false;
+                    try {
+                        sort(lines);
+                        Future<File> written = writers.submit(new Callable<File>() {
+                            @Override
+                            public File call() throws IOException {
+                                try {
+                                    return save(lines, tmpdirectory);
+                                } finally {
+                                    budget.release(kb);
+                                }
+                            }
+                        });
+                        handedOver = true;
+                        return written;
+                    } finally {
+                        if (!handedOver) {
+                            budget.release(kb);
+                        }
+                    }
+                }
+            }));
+        }
+        
+        // wait until all runs are written and return their files (in the order in which they were submitted)
+        public List<File> finish() throws IOException {
+            List<File> files = new ArrayList<File>();
+            try {
+                for (Future<Future<File>> run : runs) {
+                    files.add(run.get().get());
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for a run to be written", e);
+            }
+            return files;
+        }
+        
+        public void shutdown() {
+            sorters.shutdown();
+            writers.shutdown();
+        }
+    }
+    
+    // the first line of every sampleDistance lines of a run and the position at which it starts in the file
+    private static class RunSamples {
+        public ArrayList<String> lines = new ArrayList<String>();
+        public TLongArrayList positions = new TLongArrayList();
+        
+        public void add(String line, long position) {
+            lines.add(line);
+            positions.add(position);
+        }
+    }
+    
+    // compare lines in the order of the sort (by their keys first, if there is a key extractor)
+    private int compareLines(String a, String b) {
+        if (keyExtractor != null) {
+            int rv = Long.compare(keyExtractor.applyAsLong(a), keyExtractor.applyAsLong(b));
+            if (rv != 0) {
+                return rv;
+            }
+        }
+        return stringComparator.compare(a, b);
+    }
+    
+    // compare the current line of a run with a splitter line (whose key is given)
+    private int compareToSplitter(FileBuffer run, String splitter, long splitterKey) {
+        if (keyExtractor != null) {
+            int rv = Long.compare(run.peekKey(), splitterKey);
+            if (rv != 0) {
+                return rv;
+            }
+        }
+        return stringComparator.compare(run.peek(), splitter);
+    }
+    
+    // choose up to ranges-1 distinct splitter lines that divide the samples of all runs into ranges of equal size
+    private List<String> chooseSplitters(List<File> files, int ranges) {
+        ArrayList<String> samples = new ArrayList<String>();
+        for (File f : files) {
+            samples.addAll(runSamples.get(f).lines);
+        }
+        String[] sorted = samples.toArray(new String[samples.size()]);
+        Arrays.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return compareLines(a, b);
+            }
+        });
+        List<String> splitters = new ArrayList<String>();
+        for (int r=1; r<ranges; r++) {
+            String splitter = sorted[(int) ((long) r * sorted.length / ranges)];
+            if (compareLines(splitter, sorted[0]) > 0
+                && (splitters.isEmpty() || compareLines(splitter, splitters.get(splitters.size() - 1)) > 0)) {
+                splitters.add(splitter);
+            }
+        }
+        return splitters;
+    }
+    
+    // merge the ranges between the splitters concurrently into segments and concatenate them into the output
+    private void mergeInParallel(final List<File> files, File outputfile, final List<String> splitters) throws IOException {
+        final int nRanges = splitters.size() + 1;
+        System.out.println("Merging " + files.size() + " runs in " + nRanges + " ranges with " + mergeThreads + " threads.");
+        final List<File> segments = new ArrayList<File>();
+        ArrayList<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        for (int r=0; r<nRanges; r++) {
+            final File segment = File.createTempFile("mergeRange", "flatfile", outputfile.getAbsoluteFile().getParentFile());
+            segment.deleteOnExit();
+            segments.add(segment);
+            final String lower = (r > 0) ? splitters.get(r - 1) : null;
+            final String upper = (r < nRanges - 1) ? splitters.get(r) : null;
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    return mergeRange(files, lower, upper, segment);
+                }
+            });
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(mergeThreads);
+        try {
+            long lines = 0;
+            int done = 0;
+            for (Future<Long> f : executor.invokeAll(tasks)) {
+                lines += f.get();
+                System.out.print("\rMerged " + (++done) + "/" + nRanges + " ranges.      ");
+            }
+            System.out.println();
+            if (lines != totalLinesInFile) {
+                throw new IOException("The merged ranges have " + lines + " instead of " + totalLinesInFile + " lines");
+            }
+            TemporaryFiles.concatenate(segments, outputfile, compress);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while merging", e);
+        } finally {
+            executor.shutdown();
+            for (File segment : segments) {
+                segment.delete();
+            }
+        }
+        reportSizes("Sorted output");
+        
+        // clean up temporary files
+        for (File f : files) {
+            f.delete();
+            runSamples.remove(f);
+        }
+    }
+    
+    /* Merge the lines from lower (inclusive) to upper (exclusive) of all runs into a segment and return the number
+     * of lines. Lower and upper are null for the first and the last range.
+     */
+    private long mergeRange(List<File> files, String lower, String upper, File segment) throws IOException {
+        long lowerKey = (lower != null && keyExtractor != null) ? keyExtractor.applyAsLong(lower) : 0;
+        long upperKey = (upper != null && keyExtractor != null) ? keyExtractor.applyAsLong(upper) : 0;
+        PriorityQueue<FileBuffer> pq = new PriorityQueue<FileBuffer>(11, (keyExtractor != null) ? fileKeyComparator : fileComparator);
+        OutputStream out = null;
+        BufferedWriter fbw = null;
+        long lines = 0;
+        try {
+            for (File f : files) {
+                // start at the last sample before the range (or at the start of the run)
+                RunSamples samples = runSamples.get(f);
+                long position = 0;
+                if (lower != null) {
+                    for (int i=0; i<samples.lines.size() && compareLines(samples.lines.get(i), lower) < 0; i++) {
+                        position = samples.positions.get(i);
+                    }
+                }
+                InputStream in = TemporaryFiles.open(f, position, writeBufferSize);
+                FileBuffer bfb = new FileBuffer(new BufferedReader(new InputStreamReader(in, "UTF-8")), keyExtractor);
+                while (lower != null && !bfb.empty() && compareToSplitter(bfb, lower, lowerKey) < 0) {
+                    bfb.pop();
+                }
+                if (!bfb.empty() && (upper == null || compareToSplitter(bfb, upper, upperKey) < 0)) {
+                    pq.add(bfb);
+                } else {
+                    bfb.close();
+                }
+            }
+            
+            out = TemporaryFiles.create(segment, compress, writeBufferSize);
+            fbw = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), writeBufferSize);
+            while (pq.size() > 0) {
+                FileBuffer bfb = pq.poll();
+                fbw.write(bfb.pop());
+                fbw.newLine();
+                lines++;
+                if (!bfb.empty() && (upper == null || compareToSplitter(bfb, upper, upperKey) < 0)) {
+                    pq.add(bfb);
+                } else {
+                    bfb.close();
+                }
+            }
+        } finally {
+            if (fbw != null) {
+                fbw.close();
+            }
+            for (FileBuffer bfb : pq) {
+                bfb.close();
+            }
+        }
+        addSizes(segment, compress ? (BlockCompressedOutputStream) out : null);
+        return lines;
+    }
+    
+    // estimated memory of an array of lines (object headers, array reference and two bytes per character)
+    private static long estimateBytes(String[] lines) {
+        long bytes = 16;
+        for (String line : lines) {
+            bytes += (line != null) ? 56 + 2 * line.length() : 8;
+        }
+        return bytes;
+    }
+    
+    // returns true if the file was sorted successfully
+    public boolean sortFile(File inputFile, File outputFile, File tempFileDir) {
         try {
             
             // read input file and sort into smaller files
-            BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
+            BufferedReader bf = new BufferedReader(new InputStreamReader(TemporaryFiles.open(inputFile, writeBufferSize), "UTF-8"));
             List<File> files = sortInBatch(bf, tempFileDir);
+            reportSizes("Sorted runs");
             
             // merge small sorted files into big sorted file
             mergeSortedFiles(files, outputFile);
             
         } catch (Exception e) {
             e.printStackTrace();
+            return false;
         }
+        return true;
     }
 
 }
@@ -0,0 +1,228 @@
+package externalsort;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opens temporary files that may be block compressed (see BlockCompressedOutputStream). Compressed files
+ * start with a magic number that cannot occur at the start of an uncompressed temporary file (neither in
+ * the text format nor in the binary edge format), so readers detect the format of a file themselves.
+ * Compression and decompression run on a shared pool of daemon threads.
+ * Readers can start at positions that were marked while the file was written (see position), which allows
+ * several threads to read different parts of a sorted file.
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class TemporaryFiles {
+
+    public static final int MAGIC = 0xED4C4231;
+
+    // size of the uncompressed blocks
+    public static final int blockSize = 1 << 20;
+
+    private static ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "LOAD-compression");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private TemporaryFiles() {}
+
+    // create a temporary file (block compressed if compress is true)
+    public static OutputStream create(File file, boolean compress, int bufferSize) throws IOException {
+        if (compress) {
+            return new BlockCompressedOutputStream(file.getPath(), blockSize);
+        }
+        return new CountingOutputStream(new FileOutputStream(file), bufferSize);
+    }
+
+    // open a temporary file for reading (compressed or not)
+    public static InputStream open(File file, int bufferSize) throws IOException {
+        return open(file, 0, bufferSize);
+    }
+
+    // open a temporary file for reading at a position that was returned by position
+    public static InputStream open(File file, long position, int bufferSize) throws IOException {
+        if (isCompressed(file)) {
+            return new BlockCompressedInputStream(file.getPath(), position);
+        }
+        FileInputStream in = new FileInputStream(file);
+        in.getChannel().position(position);
+        return new BufferedInputStream(in, bufferSize);
+    }
+
+    /* The position of the next byte that is written to a stream of create, at which a reader can start (see
+     * open). All data must have been written to the stream (e.g. writers on top of it must be flushed). For
+     * a compressed file, the current block is ended (so positions should not be requested too often).
+     */
+    public static long position(OutputStream out) throws IOException {
+        if (out instanceof BlockCompressedOutputStream) {
+            return ((BlockCompressedOutputStream) out).endBlock();
+        } else if (out instanceof CountingOutputStream) {
+            return ((CountingOutputStream) out).getCount();
+        }
+        throw new IllegalArgumentException("Not a temporary file stream");
+    }
+
+    /* Concatenate temporary files that were written with the same compression setting into the output file.
+     * The blocks of compressed files are copied without decompressing them, and the trailer of the output
+     * is the sum of the trailers of the parts. The parts are kept.
+     */
+    public static void concatenate(List<File> parts, File output, boolean compressed) throws IOException {
+        FileChannel out = new FileOutputStream(output).getChannel();
+        try {
+            long trailer = 0;
+            if (compressed) {
+                ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+                header.flip();
+                writeFully(out, header);
+            }
+            for (File part : parts) {
+                FileChannel in = new FileInputStream(part).getChannel();
+                try {
+                    long from = 0;
+                    long to = in.size();
+                    if (compressed) {
+                        // skip the magic number and the end marker with the trailer
+                        from = 4;
+                        to -= 12;
+                        trailer += trailer(part);
+                    }
+                    while (from < to) {
+                        from += in.transferTo(from, to - from, out);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            if (compressed) {
+                ByteBuffer end = ByteBuffer.allocate(12).putInt(0).putLong(trailer);
+                end.flip();
+                writeFully(out, end);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static boolean isCompressed(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    // force a file that was already closed to disk
+    public static void force(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    // the trailer of a compressed file (see BlockCompressedOutputStream)
+    public static long trailer(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(raf.length() - 8);
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    // percentage of bytes saved by the compression
+    public static String savings(long rawBytes, long storedBytes) {
+        if (rawBytes == 0) {
+            return "0%";
+        }
+        return Math.round(100.0 * (rawBytes - storedBytes) / rawBytes) + "%";
+    }
+
+    // a buffered output stream that counts the bytes that were written to it
+    private static class CountingOutputStream extends BufferedOutputStream {
+        private long count;
+
+        public CountingOutputStream(OutputStream out, int bufferSize) {
+            super(out, bufferSize);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            count++;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            count += len;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    static <T> Future<T> submit(Callable<T> task) {
+        return pool.submit(task);
+    }
+
+    // wait for a task of the pool (the stream that submitted it needs its result)
+    static <T> T await(Future<T> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@ package settings;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 //porter stemmer library imports
 import org.tartarus.snowball.SnowballStemmer;
@@ -38,9 +40,12 @@ public class LOADmodelSettings {
     public static String outfolder = SystemSettings.folder + "graph_output/";
     public static String tmpfolder = outfolder + "temp/";
     public static String pageIDList = SystemSettings.folder + "input_PageIDs.txt";
-    public static String tmpfile = tmpfolder + "unaggregatedEdgelists.txt";
-    public static String sortedtmpfile = tmpfolder + "sorted_unaggregatedEdgelists.txt";
+    public static String tmpRunDirectory = tmpfolder + "runs/";
+    public static String sortedtmpfile = tmpfolder + "sorted_unaggregatedEdgelists.bin";
+    public static String remappedRunDirectory = tmpfolder + "remapped_runs/";
     public static String tmpSortingDirectory = outfolder + "tmpSorting/";
+    public static String checkpointFileName = tmpfolder + "checkpoint.txt";
+    public static String checkpointPrefix = "checkpoint_";
     public static String metaFileName = "metaData.txt";
     public static String[] vertexFileNames = {"vDAT.txt", "vLOC.txt", "vACT.txt", "vORG.txt", "vTER.txt", "vPAG.txt", "vSEN.txt"};
     public static String[] edgeFileNames = {"eDAT.txt", "eLOC.txt", "eACT.txt", "eORG.txt", "eTER.txt", "ePAG.txt", "eSEN.txt"};
@@ -79,7 +84,7 @@ public class LOADmodelSettings {
     // for different temporal taggers, this may have to be adjusted.
     public static String datepattern = "(\\d{4})(-\\d{2})?(-\\d{2})?.*";
     
-    // maximum sentence distance between annotations to still be used for edge creation
+    // maximum sentence distance between annotations to still be used for edge creation (at most 255)
     public static int maxDistanceInSentences = 5;
     
     // default weights for unweighted edges (pages, sentences)
@@ -105,18 +110,30 @@ public class LOADmodelSettings {
     
     // replacement of special characters and trimming for Terms (non-entities)
     public static String replaceAndTrimTerms(String in) {
-        String out = in.replaceAll(replaceExpressionWhitespace," ").trim();
-        out = out.replaceAll(replaceExpressionTerms,"");
+        String out = compiled(replaceExpressionWhitespace).matcher(in).replaceAll(" ").trim();
+        out = compiled(replaceExpressionTerms).matcher(out).replaceAll("");
         return out;
     }
     
     // replacement of special characters and trimming for Names (entities)
     public static String replaceAndTrimNames(String in) {
-        String out = in.replaceAll(replaceExpressionWhitespace," ").trim();
-        out = out.replaceAll(replaceExpressionNames,"");
+        String out = compiled(replaceExpressionWhitespace).matcher(in).replaceAll(" ").trim();
+        out = compiled(replaceExpressionNames).matcher(out).replaceAll("");
         return out;
     }
     
+    // compiled regular expressions (String.replaceAll would compile the expression for every word)
+    private static ConcurrentHashMap<String, Pattern> compiledExpressions = new ConcurrentHashMap<String, Pattern>();
+    
+    private static Pattern compiled(String expression) {
+        Pattern pattern = compiledExpressions.get(expression);
+        if (pattern == null) {
+            pattern = Pattern.compile(expression);
+            compiledExpressions.put(expression, pattern);
+        }
+        return pattern;
+    }
+    
     // language for stemmer to be used for stemming terms. By default, an English stemmer is used.
     // However, other language versions are available / included and can be used.
     // Implementation of the Porter stemmer from http://snowball.tartarus.org/
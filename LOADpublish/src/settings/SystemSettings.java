@@ -29,11 +29,81 @@ public class SystemSettings {
     // the same data. In this case, set the parameter to TRUE.
     public static boolean readIDsFromFile = false;
     
+    // Method for finding the IDs of all pages with annotations (if they are not read from file):
+    // discoveryAggregate lets the mongoDB group and count annotations by page ID on the server,
+    // discoveryParallel scans the page ID field of all annotations with nDiscoveryThreads threads that each
+    // read a range of annotation _ids, and discoverySequential scans them on a single cursor.
+    // If the aggregation fails (e.g. on old servers), the parallel scan is used instead.
+    public static final String discoveryAggregate = "aggregate";
+    public static final String discoveryParallel = "parallel";
+    public static final String discoverySequential = "sequential";
+    public static String pageIdDiscovery = discoveryAggregate;
+    public static int nDiscoveryThreads = 8;
+    
     // number of threads that are used for network construction
     // since the program is bounded by the speed of the database, setting this above the number
     // of cores on your system has no beneficial effect.
     public static int nThreads = 20;
     
+    // maximum number of consecutive pages that a thread claims at once. Chunks become smaller towards the
+    // end of the construction, so that the work remains balanced between threads.
+    public static int maxPageChunkSize = 64;
+    
+    // order the pages by their estimated processing cost (derived from the number of annotations and sentences
+    // found during the scan for page IDs) and process the most expensive pages first, so that large pages do
+    // not end up at the tail of the run while most threads are idle. Otherwise, pages are shuffled.
+    public static boolean costAwareScheduling = true;
+    
+    // Staged construction: fetcher threads read pages from the database (I/O bound), processing threads
+    // turn them into edges (CPU bound) and a single writer thread writes the edges to disk. The stages are
+    // connected by bounded queues, so the number of threads can be tuned for each stage individually.
+    // If set to FALSE, nThreads workers perform all steps themselves.
+    public static boolean usePipeline = false;
+    public static int nFetchThreads = 32;            // may exceed the number of cores (threads wait for the DB)
+    public static int nProcessThreads = 8;            // should not exceed the number of cores
+    public static int pageQueueSize = 256;            // maximum number of fetched pages waiting for processing
+    public static int edgeQueueSize = 64;            // maximum number of processed pages waiting for the writer
+    
+    // Fetch every page in its own virtual thread (requires Java 21, falls back to platform threads otherwise),
+    // so that many more requests to the database can be outstanding than with nFetchThreads fetchers. The
+    // processing of pages stays on nProcessThreads threads. Implies the staged construction (usePipeline).
+    // Requests beyond the size of the mongoDB connection pool (mongoConnectionsPerHost) wait for a free connection.
+    public static boolean useVirtualThreads = false;
+    public static int maxPagesInFlight = 1024;        // maximum number of pages that are fetched at the same time
+    
+    // Reproducible graphs: node IDs are assigned in the lexicographic order of the node names (per node type) after
+    // the extraction instead of in the order in which the threads find them, so that the vertex and edge files are
+    // byte-identical across runs, independent of the number of threads. Requires an additional pass over the
+    // unaggregated edges.
+    public static boolean deterministicIDs = false;
+    
+    // number of lock stripes of each node dictionary. Looking up known node names never locks, adding a new name
+    // locks one stripe. More stripes allow more threads to add new names (mostly terms) at the same time.
+    public static int dictionaryStripes = 64;
+    
+    // Store the node names of the dictionaries as UTF-8 bytes outside of the Java heap (in direct byte buffers)
+    // instead of as Java Strings. This greatly reduces the heap size and garbage collection times for large
+    // collections with hundreds of millions of sentences and terms. Note that the off-heap memory is limited
+    // by -XX:MaxDirectMemorySize (by default the maximum heap size).
+    public static boolean offHeapDictionaries = false;
+    
+    // maximum number of node IDs per node type that each worker keeps in its near-cache. Values that are not in the
+    // cache are collected for the whole page and resolved in the shared dictionaries with one call per node type.
+    public static int nearCacheSize = 1 << 16;
+    
+    // fetch all annotations of a page with a single query and group them by sentence in memory, instead
+    // of querying the annotations of each sentence individually. This reduces the number of round trips
+    // to the database by the average number of sentences per page.
+    public static boolean bulkAnnotationFetch = true;
+    
+    // Construction records its progress in a checkpoint file after every stage and after every checkpointInterval
+    // pages during the extraction. If resumeFromCheckpoint is set to TRUE, an interrupted run continues from the
+    // last checkpoint instead of deleting all output and starting from scratch. Set checkpointInterval to 0 to
+    // only create checkpoints between stages.
+    public static boolean useCheckpoints = true;
+    public static boolean resumeFromCheckpoint = false;
+    public static int checkpointInterval = 1000000;
+    
     // mongoDB login settings. if your mongoDB has no authentication data, you can skip entering a password,
     // username and authentication DB and just set mongocred to NULL.
     public static String MongoAdress = "<mongo Db server address>";        // server name or IP address of the mongo DB
@@ -43,6 +113,15 @@ public class SystemSettings {
     public static String auth_db = "name of authentication DB";
     //public static MongoCredential mongocred = MongoCredential.createCredential(username, auth_db, password.toCharArray());
     public static MongoCredential mongocred = null;
+    public static int mongoConnectionsPerHost = 100;                    // size of the connection pool of the driver
+    
+    // Instead of the mongoDB, graph construction can read its input from a local file that contains one
+    // record per page with all of its sentences and annotations (such a file can be created from the
+    // mongoDB with tools.ExportPagesToFile). Files ending in .bson contain concatenated BSON documents,
+    // all other files contain one JSON document per line. Set to null to read from the mongoDB.
+    public static String localSourceFile = null;
+    public static String localSourceSentences = "sentences";        // handle for the sentences of a page record
+    public static String localSourceAnnotations = "annotations";    // handle for the annotations of a page record
     
     // mongoDB database and collection names
     public static String MongoDBname = "<name of mongo Db database>";        // database that contains the annotation data
@@ -85,4 +164,41 @@ public class SystemSettings {
     // setting this too low may create memory problems. Setting it too high may collide with
     // the maximum number of allowed open files on your machine.
     public static int maxTempFiles = 50;
+    
+    // number of unaggregated edges that each worker collects in memory before it sorts them and writes them as
+    // a run for the external sort (16 bytes per edge, plus the same again while sorting)
+    public static int edgesPerRun = 1 << 21;
+    
+    // combine identical edges of each worker in memory before they are written (same nodes and distance).
+    // Each worker uses up to combinerMemory bytes for this and writes a run whenever the memory is full.
+    public static boolean combineEdges = true;
+    public static long combinerMemory = 32L * 1024 * 1024;
+    
+    // block compression (fast deflate) of the temporary edge files, the runs of the external sorts and the
+    // temporary per-type edge files. Saves disk space and I/O if the temporary disk is slow, but costs CPU time.
+    public static boolean compressTemporaryFiles = false;
+    
+    // write each unaggregated edge in both directions during the extraction and partition the edges by their
+    // source type. Each partition is then merged and aggregated on its own (in parallel) directly into the sorted
+    // edge file of its type, which saves the second external sort of the aggregated edges. The unaggregated
+    // edges take twice the space.
+    public static boolean partitionEdgesByType = false;
+    
+    // aggregate the unaggregated edges during the final merge of their sorted runs instead of writing the merged
+    // edges to a sorted file (see LOADmodelSettings.sortedtmpfile) and reading it again for the aggregation. The
+    // runs are then merged in the aggregation stage, and the sorting stage is skipped (it only reports the runs).
+    public static boolean aggregateWhileMerging = true;
+    
+    // sort the runs of the per-type edge files with a radix sort of packed edge keys (parsed once per edge)
+    // instead of comparing the text lines. Only used if all node IDs have at most 28 bits.
+    public static boolean radixSortEdges = true;
+    
+    // memory (in bytes) for the runs of the external sort of the per-type edge files that have been read but not
+    // yet sorted and written. While a run is read, earlier runs are sorted and written by other threads, so that
+    // disk and processors are busy at the same time. 0 reads, sorts and writes one run after the other.
+    public static long sortPipelineMemory = 512L * 1024 * 1024;
+    
+    // merge the sorted runs of the per-type edge files with all threads instead of a single one. The runs are
+    // sampled while they are written, and each thread merges one range of the edges (from the samples on).
+    public static boolean parallelMerge = true;
 }
@@ -0,0 +1,157 @@
+package tools;
+
+import static settings.SystemSettings.*;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+// trove library imports
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import construction.ConcurrentDictionary;
+
+/**
+ * Measures the throughput of node ID look-ups under contention for the lock-striped ConcurrentDictionary
+ * and for a single synchronized map (the dictionary that was used by MultiThreadHub before).
+ * All threads look up words that are drawn from a Zipf distribution, similar to terms in text, so most
+ * look-ups hit known values and a few add new ones.
+ *
+ * Usage: DictionaryContentionBenchmark [max threads] [vocabulary size] [look-ups per thread]
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class DictionaryContentionBenchmark {
+
+    // common interface of the compared dictionaries
+    private interface Dictionary {
+        public int getID(String value);
+        public int size();
+    }
+
+    // the previous implementation: one map per node type that is locked for every look-up
+    private static class SynchronizedDictionary implements Dictionary {
+        private TObjectIntHashMap<String> map = new TObjectIntHashMap<String>();
+        private int currentID = 0;
+
+        @Override
+        public int getID(String value) {
+            synchronized (map) {
+                if (map.containsKey(value)) {
+                    return map.get(value);
+                } else {
+                    map.put(value, currentID);
+                    return currentID++;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+    }
+
+    private static class StripedDictionary implements Dictionary {
+        private ConcurrentDictionary dictionary = new ConcurrentDictionary(0, dictionaryStripes);
+
+        @Override
+        public int getID(String value) {
+            return dictionary.getID(value);
+        }
+
+        @Override
+        public int size() {
+            return dictionary.size();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : nThreads;
+        int vocabulary = (args.length > 1) ? Integer.parseInt(args[1]) : 1000000;
+        int lookups = (args.length > 2) ? Integer.parseInt(args[2]) : 2000000;
+
+        System.out.println("Generating " + lookups + " look-ups per thread from a vocabulary of " + vocabulary + " words.");
+        String[][] words = new String[maxThreads][];
+        ZipfSampler zipf = new ZipfSampler(vocabulary, 1.0);
+        for (int t=0; t<maxThreads; t++) {
+            Random random = new Random(t);
+            words[t] = new String[lookups];
+            for (int i=0; i<lookups; i++) {
+                words[t][i] = "word" + zipf.sample(random);
+            }
+        }
+
+        DecimalFormat dform = new DecimalFormat("#,##0");
+        // 1, 2, 4, ... threads up to maxThreads
+        for (int threads=1; threads<=maxThreads; threads = (threads < maxThreads) ? Math.min(2 * threads, maxThreads) : threads + 1) {
+            // warm up once, then measure
+            run(new SynchronizedDictionary(), words, threads);
+            run(new StripedDictionary(), words, threads);
+            double sync = run(new SynchronizedDictionary(), words, threads);
+            double striped = run(new StripedDictionary(), words, threads);
+            System.out.println(threads + " threads: synchronized " + dform.format(sync) + " look-ups/s, striped "
+                               + dform.format(striped) + " look-ups/s (" + new DecimalFormat("#.##").format(striped / sync) + "x)");
+        }
+    }
+
+    // returns the number of look-ups per second
+    private static double run(final Dictionary dictionary, final String[][] words, int threads) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        long total = 0;
+        for (int t=0; t<threads; t++) {
+            final String[] list = words[t];
+            total += list.length;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        int sum = 0;
+                        for (String word : list) {
+                            sum += dictionary.getID(word);
+                        }
+                        if (sum == 42) {
+                            System.out.print("");
+                        }
+                    } catch (InterruptedException e) {
+                        System.out.println("Benchmark thread was interrupted");
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        return total / seconds;
+    }
+
+    // samples ranks 0..n-1 with probability proportional to 1/(rank+1)^s (by inverting the cumulative distribution)
+    private static class ZipfSampler {
+        private double[] cumulative;
+
+        public ZipfSampler(int n, double s) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i=0; i<n; i++) {
+                sum += 1.0 / Math.pow(i + 1, s);
+                cumulative[i] = sum;
+            }
+            for (int i=0; i<n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        public int sample(Random random) {
+            int pos = Arrays.binarySearch(cumulative, random.nextDouble());
+            return (pos >= 0) ? pos : Math.min(-pos - 1, cumulative.length - 1);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package tools;
+
+import static settings.LOADmodelSettings.*;
+import static settings.SystemSettings.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// trove library imports
+import gnu.trove.list.array.TLongArrayList;
+
+import construction.LocalFileDocumentSource;
+import construction.MultiThreadHub;
+import construction.MultiThreadWorker;
+import construction.NodeDictionary;
+import construction.PageBundle;
+import construction.PageList;
+import construction.SequentialNodeSet;
+
+/**
+ * Measures the number of bytes that MultiThreadWorker allocates per page while it turns pages into edges,
+ * together with the throughput of a single worker. The pages are read from a local page file (see
+ * SystemSettings.localSourceFile) and kept in memory, so only the allocations of the edge generation itself
+ * (including the text processing of the sentences and the ID look-ups) are counted. The allocated bytes are
+ * taken from the JVM's per-thread allocation counter.
+ *
+ * Usage: EdgeGenerationBenchmark [page file] [rounds]  (defaults to SystemSettings.localSourceFile, 5 rounds)
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeGenerationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String filename = (args.length > 0) ? args[0] : localSourceFile;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        if (filename == null) {
+            System.out.println("Usage: EdgeGenerationBenchmark [page file] [rounds]");
+            return;
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("The JVM does not support measuring allocated memory per thread.");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // read all pages into memory
+        LocalFileDocumentSource source = new LocalFileDocumentSource(filename);
+        PageList pageList = source.scanPages();
+        ArrayList<PageBundle> pages = new ArrayList<PageBundle>();
+        for (int id : pageList.pageIDs) {
+            pages.add(source.getPage(id));
+        }
+        source.close();
+
+        // the sequential nodes (pages and sentences) are written to temporary files that are deleted at the end
+        ArrayList<NodeDictionary> dictionaries = new ArrayList<NodeDictionary>();
+        SequentialNodeSet[] sequentialNodes = new SequentialNodeSet[nANNOTATIONS];
+        File[] sideFiles = new File[nANNOTATIONS];
+        for (int i=0; i<nANNOTATIONS; i++) {
+            dictionaries.add((i < PAG) ? NodeDictionary.create() : null);
+            if (i >= PAG) {
+                sideFiles[i] = File.createTempFile("benchmark_" + setNames[i], ".txt");
+                sequentialNodes[i] = new SequentialNodeSet(sideFiles[i].getPath(), 0);
+                sequentialNodes[i].open(false);
+            }
+        }
+        MultiThreadHub hub = new MultiThreadHub(pageList.pageIDs, null, dictionaries, sequentialNodes, null, 1);
+        MultiThreadWorker worker = new MultiThreadWorker(hub, source, readStopWords());
+
+        DecimalFormat dform = new DecimalFormat("#,##0");
+        TLongArrayList edges = new TLongArrayList();
+        long thread = Thread.currentThread().getId();
+        System.out.println("Generating the edges of " + pages.size() + " pages in " + rounds + " rounds (the first round only warms up).");
+        for (int r=0; r<rounds; r++) {
+            long edgeCount = 0;
+            long bytes0 = threads.getThreadAllocatedBytes(thread);
+            long t0 = System.nanoTime();
+            for (PageBundle page : pages) {
+                edges.resetQuick();
+                worker.processPage(page, edges);
+                edgeCount += edges.size() / 2;
+            }
+            double seconds = (System.nanoTime() - t0) / 1e9;
+            long bytes = threads.getThreadAllocatedBytes(thread) - bytes0;
+            if (r > 0) {
+                System.out.println("Round " + r + ": " + dform.format(bytes / pages.size()) + " bytes/page, "
+                                   + dform.format(bytes / Math.max(1, edgeCount)) + " bytes/edge, "
+                                   + dform.format(pages.size() / seconds) + " pages/s, "
+                                   + dform.format(edgeCount / seconds) + " edges/s");
+            }
+        }
+
+        for (int i=PAG; i<nANNOTATIONS; i++) {
+            sequentialNodes[i].close();
+            sideFiles[i].delete();
+        }
+    }
+
+    private static HashSet<String> readStopWords() {
+        HashSet<String> stopwords = new HashSet<String>();
+        try {
+            BufferedReader bf = new BufferedReader(new InputStreamReader(new FileInputStream(stopwordlist), "UTF-8"));
+            String line;
+            while ((line = bf.readLine()) != null) {
+                stopwords.add(line.toLowerCase().trim());
+            }
+            bf.close();
+        } catch (Exception e) {
+            System.out.println("Problem reading stopwords. Using no stopwords.");
+        }
+        return stopwords;
+    }
+}
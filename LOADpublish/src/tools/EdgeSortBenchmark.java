@@ -0,0 +1,68 @@
+package tools;
+
+import static settings.LOADmodelSettings.*;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Random;
+
+import construction.ParallelExtractNetworkFromMongo;
+import externalsort.EdgeKey;
+import externalsort.ParallelDiskMergeSort;
+
+/**
+ * Compares the two ways of sorting a run of aggregated edges in text format (see ParallelDiskMergeSort):
+ * Arrays.parallelSort of the lines with the edge comparator, which splits and parses both lines for every
+ * comparison, and the radix sort of packed edge keys (see EdgeKey and ParallelDiskMergeSort.setKeyExtractor),
+ * which parses every line once.
+ * The runs consist of random edges of a single source type between nodes with the given number of IDs.
+ *
+ * Usage: EdgeSortBenchmark [edges per run] [number of nodes per type] [rounds]
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class EdgeSortBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int edges = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+        int nodes = (args.length > 1) ? Integer.parseInt(args[1]) : 10000000;
+        int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        System.out.println("Generating " + edges + " edges between " + nodes + " nodes per type.");
+        Random random = new Random(42);
+        String[] lines = new String[edges];
+        char sourceType = ACT;
+        for (int i=0; i<edges; i++) {
+            char targetType = (char) random.nextInt(nANNOTATIONS);
+            String weight = (targetType >= TER) ? "1" : df.format(random.nextFloat() * 10);
+            lines[i] = sourceType + sepChar + targetType + sepChar + random.nextInt(nodes) + sepChar
+                       + random.nextInt(nodes) + sepChar + weight;
+        }
+        EdgeKey edgeKey = new EdgeKey(nodes, sepChar);
+
+        DecimalFormat dform = new DecimalFormat("#,##0");
+        // the first round only warms up
+        for (int r=0; r<=rounds; r++) {
+            String[] a = Arrays.copyOf(lines, edges);
+            long t0 = System.nanoTime();
+            Arrays.parallelSort(a, ParallelExtractNetworkFromMongo.edgecomparator);
+            double comparator = (System.nanoTime() - t0) / 1e9;
+
+            String[] b = Arrays.copyOf(lines, edges);
+            t0 = System.nanoTime();
+            ParallelDiskMergeSort.sortByKeys(b, edgeKey, ParallelExtractNetworkFromMongo.edgecomparator);
+            double radix = (System.nanoTime() - t0) / 1e9;
+
+            if (!Arrays.equals(a, b)) {
+                System.out.println("The sorted runs differ.");
+                return;
+            }
+            if (r > 0) {
+                System.out.println("Round " + r + ": comparator " + dform.format(edges / comparator) + " edges/s, radix "
+                                   + dform.format(edges / radix) + " edges/s (" + new DecimalFormat("#.##").format(comparator / radix) + "x)");
+            }
+        }
+    }
+}
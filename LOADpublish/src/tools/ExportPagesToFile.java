@@ -0,0 +1,88 @@
+package tools;
+
+import static settings.SystemSettings.*;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+// mongoDB imports
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import construction.MongoDocumentSource;
+import construction.PageBundle;
+
+/**
+ * Exports the sentences and annotations from the mongoDB into a local file with one record per page
+ * that can be used as input for the LOAD graph construction (see SystemSettings.localSourceFile).
+ * Output files ending in .bson contain concatenated BSON documents, all others one JSON document per line.
+ *
+ * Usage: ExportPagesToFile [output file]  (defaults to SystemSettings.localSourceFile)
+ *
+ * Originally published July 2016 at
+ * http://dbs.ifi.uni-heidelberg.de/?id=load
+ * (c) 2016 Andreas Spitz (spitz@informatik.uni-heidelberg.de)
+ */
+public class ExportPagesToFile {
+
+    public static void main(String[] args) {
+
+        String filename = (args.length > 0) ? args[0] : localSourceFile;
+        if (filename == null) {
+            System.out.println("No output file specified.");
+            return;
+        }
+        boolean bson = filename.endsWith(".bson");
+
+        try {
+            MongoDocumentSource source = new MongoDocumentSource();
+            int[] pageIDs = source.scanPages().pageIDs;
+            System.out.println("Exporting " + pageIDs.length + " pages to " + filename);
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), bufferSize);
+            DocumentCodec codec = new DocumentCodec();
+            BasicOutputBuffer buffer = new BasicOutputBuffer();
+
+            int count = 0;
+            for (int pageId : pageIDs) {
+                PageBundle page = source.getPage(pageId);
+
+                // the annotations of all sentences in a single list (see LocalFileDocumentSource)
+                ArrayList<Document> annotations = new ArrayList<Document>(page.nAnnotations);
+                for (ArrayList<Document> list : page.annotationsBySentence.values()) {
+                    annotations.addAll(list);
+                }
+                Document record = new Document(mongoIdentSentence_pageId, pageId)
+                                      .append(localSourceSentences, page.sentences)
+                                      .append(localSourceAnnotations, annotations);
+
+                if (bson) {
+                    buffer.truncateToPosition(0);
+                    BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+                    codec.encode(writer, record, EncoderContext.builder().build());
+                    writer.close();
+                    buffer.pipe(out);
+                } else {
+                    out.write((record.toJson() + "\n").getBytes("UTF-8"));
+                }
+
+                if (++count % 10000 == 0) {
+                    System.out.print("\rExported " + count + " pages.     ");
+                }
+            }
+            System.out.println("\rExported " + count + " pages.     ");
+
+            out.close();
+            source.close();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+}